@@ -10,9 +10,45 @@ object Conf {
 
     const val TARGET_STEP_RATE: Int = 60
     const val TARGET_STEP_TIME: Int = 1000 / TARGET_STEP_RATE
+
+    /**
+     * the amount of substeps used before the collisionResolver chose it; not used by the game anymore
+     */
+    @Deprecated("the substeps are set by the collisionResolver, see CollisionResolver.substepCount")
     const val SUBSTEP_COUNT: Int = 3
     const val FULL_UPDATE_RATE: Int = 120
 
+    /**
+     * entities using continuous collision are moved this far past the point of impact, so the collision is found and
+     * resolved in the next step
+     */
+    const val CONTINUOUS_COLLISION_SKIN: Double = 0.5
+
+    /**
+     * entities whose velocity stays below this value for [SLEEP_TICKS] ticks are put to sleep
+     */
+    const val SLEEP_LINEAR_THRESHOLD: Double = 0.05
+
+    /**
+     * entities whose angular velocity stays below this value for [SLEEP_TICKS] ticks are put to sleep
+     */
+    const val SLEEP_ANGULAR_THRESHOLD: Double = 0.005
+
+    /**
+     * the amount of ticks an entity needs to be below the sleep thresholds before it is put to sleep
+     */
+    const val SLEEP_TICKS: Int = 60
+
+    /**
+     * the default for [game.entities.Entity.positionSendThreshold]
+     */
+    const val SEND_POSITION_THRESHOLD: Double = 0.01
+
+    /**
+     * the default for [game.entities.Entity.rotationSendThreshold]
+     */
+    const val SEND_ROTATION_THRESHOLD: Double = 0.001
+
     val logger: Logger = Logger.getLogger("Server")
 
     init {
@@ -0,0 +1,95 @@
+package game
+
+import java.io.DataOutputStream
+import java.security.SecureRandom
+import java.util.*
+
+/**
+ * decides which ids entities get when they are added to a game (see [game.entities.Entity.id]) and how the ids are
+ * written when sending updates to the clients. The client has to read the ids in the same format, so the strategy of
+ * a game should not be changed after the clients connected.
+ *
+ * Every game has its own strategy (see [Game.idStrategy]), so generating ids never contends with other games.
+ *
+ * _Note: strategies are not thread-safe_
+ */
+interface EntityIdStrategy {
+
+    /**
+     * @return a new id that is different from all ids this strategy returned before; never
+     * [game.entities.Entity.NO_ID]
+     */
+    fun nextId(): Long
+
+    /**
+     * writes the id to the output
+     */
+    fun writeId(id: Long, output: DataOutputStream)
+
+}
+
+/**
+ * generates uuids and writes them as 16 bytes, like entities were identified before the strategies existed. The most
+ * significant bits are chosen randomly once per game and the least significant bits count up, so only the first id
+ * needs the [SecureRandom] and the uuids of different games still don't collide
+ */
+class UuidIdStrategy : EntityIdStrategy {
+
+    private val mostSignificantBits: Long = UUID.randomUUID().mostSignificantBits
+
+    private var next: Long = 1
+
+    override fun nextId(): Long = next++
+
+    /**
+     * @return the uuid the id is sent as
+     */
+    fun toUuid(id: Long): UUID = UUID(mostSignificantBits, id)
+
+    override fun writeId(id: Long, output: DataOutputStream) {
+        output.writeLong(mostSignificantBits)
+        output.writeLong(id)
+    }
+
+}
+
+/**
+ * counts up and writes the ids as 4-byte ints, which makes every reference to an entity in an update 12 bytes smaller
+ * than with [UuidIdStrategy]. The ids are only unique within the game and wrap around after 2^32 entities
+ */
+class SequentialIdStrategy : EntityIdStrategy {
+
+    private var next: Int = 1
+
+    override fun nextId(): Long {
+        // -1 (NO_ID) and 0 are skipped when wrapping around
+        if (next == -1) next = 1
+        return (next++).toLong()
+    }
+
+    override fun writeId(id: Long, output: DataOutputStream) {
+        output.writeInt(id.toInt())
+    }
+
+}
+
+/**
+ * generates random 8-byte ids using a fast non-cryptographic generator. Unlike [SequentialIdStrategy] the ids don't
+ * reveal how many entities were created and are (very likely) unique across games
+ * @param seed the seed of the generator; by default a random seed
+ */
+class RandomIdStrategy(seed: Long = SecureRandom().nextLong()) : EntityIdStrategy {
+
+    private val random: SplittableRandom = SplittableRandom(seed)
+
+    override fun nextId(): Long {
+        var id = random.nextLong()
+        while (id == -1L) id = random.nextLong()
+        return id
+    }
+
+    override fun writeId(id: Long, output: DataOutputStream) {
+        output.writeLong(id)
+    }
+
+}
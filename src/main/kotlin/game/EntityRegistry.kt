@@ -0,0 +1,228 @@
+package game
+
+import game.entities.Entity
+import utils.LongHashMap
+
+/**
+ * stores the entities of a game. The entities are kept in a dense array, so iterating is as fast as with a list, and
+ * removed entities are replaced by the last entity (swap-remove), so removing is O(1). This means the order of the
+ * entities changes when entities are removed.
+ *
+ * Every entity gets a handle when it is added (see [Entity.handle]). A handle consists of the index of a slot and a
+ * generation, which is incremented every time the slot is freed, so handles of removed entities don't find the entity
+ * that reuses the slot. The generation has 11 bits and wraps around, so freed slots are reused in the order they were
+ * freed and only once more than [MIN_FREE_SLOTS] slots are free; a stale handle can only match a new entity after
+ * about two million removals. Handles are small, so they can be used to identify entities in network-messages.
+ *
+ * The registry is not a mutable list, because swap-remove would break the index-based operations of one (like
+ * removing a range); use [view] where a list is needed.
+ *
+ * _Note: the registry is not thread-safe_
+ */
+class EntityRegistry {
+
+    private var dense: Array<Entity?> = arrayOfNulls(64)
+
+    var size: Int = 0
+        private set
+
+    /**
+     * a read-only list of the entities in the registry; reflects changes to the registry
+     */
+    val view: List<Entity> = View()
+
+    /**
+     * the slot of the entity at each index of [dense]
+     */
+    private var denseSlots: IntArray = IntArray(64)
+
+    /**
+     * the index in [dense] of the entity using each slot; for free slots the next free slot (or [NULL])
+     */
+    private var slotIndices: IntArray = IntArray(64)
+
+    /**
+     * the current generation of each slot
+     */
+    private var slotGenerations: IntArray = IntArray(64)
+
+    /**
+     * the amount of slots that were ever used
+     */
+    private var slotCount: Int = 0
+
+    /**
+     * the oldest and the newest free slot; the free slots are linked from the oldest to the newest using [slotIndices].
+     * Slots are reused in the order they were freed, so a slot is reused as rarely as possible
+     */
+    private var freeHead: Int = NULL
+    private var freeTail: Int = NULL
+
+    /**
+     * the amount of free slots
+     */
+    private var freeCount: Int = 0
+
+    private val idIndex: LongHashMap<Entity> = LongHashMap()
+
+    operator fun get(index: Int): Entity {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("index $index, size $size")
+        return dense[index]!!
+    }
+
+    /**
+     * adds the entity and assigns it a handle
+     * @throws IllegalArgumentException if the entity is already part of a registry
+     */
+    fun add(element: Entity): Boolean {
+        if (element.handle != Entity.NO_HANDLE) throw IllegalArgumentException("entity is already registered")
+        if (size == dense.size) {
+            dense = dense.copyOf(size * 2)
+            denseSlots = denseSlots.copyOf(size * 2)
+        }
+        val slot = allocateSlot()
+        slotIndices[slot] = size
+        denseSlots[size] = slot
+        dense[size] = element
+        size++
+        element.handle = (slotGenerations[slot] shl INDEX_BITS) or slot
+        idIndex[element.id] = element
+        return true
+    }
+
+    /**
+     * removes the entity at the index by replacing it with the last entity; invalidates its handle
+     * @return the removed entity
+     */
+    fun removeAt(index: Int): Entity {
+        val ent = get(index)
+        val slot = denseSlots[index]
+        val last = size - 1
+        if (index != last) {
+            val moved = dense[last]!!
+            val movedSlot = denseSlots[last]
+            dense[index] = moved
+            denseSlots[index] = movedSlot
+            slotIndices[movedSlot] = index
+        }
+        dense[last] = null
+        size = last
+        freeSlot(slot)
+        ent.handle = Entity.NO_HANDLE
+        idIndex.remove(ent.id)
+        return ent
+    }
+
+    /**
+     * removes the entity in O(1)
+     * @return false if the entity is not part of the registry
+     */
+    fun remove(element: Entity): Boolean {
+        val index = indexOfHandle(element.handle)
+        if (index == NULL || dense[index] !== element) return false
+        removeAt(index)
+        return true
+    }
+
+    operator fun contains(element: Entity): Boolean {
+        val index = indexOfHandle(element.handle)
+        return index != NULL && dense[index] === element
+    }
+
+    fun indexOf(element: Entity): Int {
+        val index = indexOfHandle(element.handle)
+        return if (index != NULL && dense[index] === element) index else -1
+    }
+
+    /**
+     * @return the entity with the handle; null if the handle is invalid or the entity was removed
+     */
+    fun getByHandle(handle: Int): Entity? {
+        val index = indexOfHandle(handle)
+        return if (index == NULL) null else dense[index]
+    }
+
+    /**
+     * @return the entity with the id (see [Entity.id]); null if there is no such entity
+     */
+    fun getById(id: Long): Entity? = idIndex[id]
+
+    fun clear() {
+        for (i in 0 until size) {
+            dense[i]!!.handle = Entity.NO_HANDLE
+            dense[i] = null
+            freeSlot(denseSlots[i])
+        }
+        size = 0
+        idIndex.clear()
+    }
+
+    /**
+     * @return the index in [dense] of the entity with the handle; [NULL] if the handle is invalid
+     */
+    private fun indexOfHandle(handle: Int): Int {
+        if (handle < 0) return NULL
+        val slot = handle and INDEX_MASK
+        if (slot >= slotCount || slotGenerations[slot] != handle ushr INDEX_BITS) return NULL
+        val index = slotIndices[slot]
+        // free slots store the next free slot instead of an index, but their generation never matches a handle
+        return if (index in 0 until size && denseSlots[index] == slot) index else NULL
+    }
+
+    private fun allocateSlot(): Int {
+        // free slots are only reused once enough of them exist, so every slot waits for many other removals before
+        // its generation is incremented again
+        if (freeCount > MIN_FREE_SLOTS || (freeCount > 0 && slotCount > INDEX_MASK)) {
+            val slot = freeHead
+            freeHead = slotIndices[slot]
+            if (freeHead == NULL) freeTail = NULL
+            freeCount--
+            return slot
+        }
+        if (slotCount > INDEX_MASK) throw IllegalStateException("too many entities")
+        if (slotCount == slotIndices.size) {
+            slotIndices = slotIndices.copyOf(slotCount * 2)
+            slotGenerations = slotGenerations.copyOf(slotCount * 2)
+        }
+        return slotCount++
+    }
+
+    private fun freeSlot(slot: Int) {
+        slotGenerations[slot] = (slotGenerations[slot] + 1) and GENERATION_MASK
+        slotIndices[slot] = NULL
+        if (freeTail == NULL) freeHead = slot else slotIndices[freeTail] = slot
+        freeTail = slot
+        freeCount++
+    }
+
+    private inner class View : AbstractList<Entity>() {
+
+        override val size: Int
+            get() = this@EntityRegistry.size
+
+        override fun get(index: Int): Entity = this@EntityRegistry[index]
+
+        override fun contains(element: Entity): Boolean = element in this@EntityRegistry
+
+        override fun indexOf(element: Entity): Int = this@EntityRegistry.indexOf(element)
+
+    }
+
+    private companion object {
+        const val NULL: Int = -1
+
+        /**
+         * the lower bits of a handle are the slot, the upper bits (without the sign-bit) are the generation
+         */
+        const val INDEX_BITS: Int = 20
+        const val INDEX_MASK: Int = (1 shl INDEX_BITS) - 1
+        const val GENERATION_MASK: Int = (1 shl (31 - INDEX_BITS)) - 1
+
+        /**
+         * the amount of free slots that are kept before slots are reused. Together with the generation, a handle can
+         * only match a different entity after (GENERATION_MASK + 1) * MIN_FREE_SLOTS (about two million) removals
+         */
+        const val MIN_FREE_SLOTS: Int = 1024
+    }
+
+}
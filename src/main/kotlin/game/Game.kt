@@ -8,6 +8,10 @@ import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.runBlocking
 import networking.*
+import utils.Vector2D
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sqrt
 
 /**
  * The game class simulates the game and sends updates to its clients
@@ -15,9 +19,24 @@ import networking.*
 class Game(val tag: Int, val server: Server) : MessageReceiver {
 
     /**
-     * List containing all entities present in the game
+     * stores the entities of the game and finds them by their handle or id; entities are added using [addEntity] and
+     * removed using [Entity.markForRemoval]
      */
-    val entities: MutableList<Entity> = mutableListOf()
+    val entityRegistry: EntityRegistry = EntityRegistry()
+
+    /**
+     * all entities present in the game (read-only); see [EntityRegistry]
+     */
+    val entities: List<Entity> = entityRegistry.view
+
+    /**
+     * the entities that changed since the last update was sent to the clients (see [Entity.dirtyFlags]). Cleared after
+     * every update, so incremental updates only need to look at the entities that changed
+     */
+    val dirtyEntities: List<Entity>
+        get() = dirtyEntityList
+
+    private val dirtyEntityList: MutableList<Entity> = mutableListOf()
 
     /**
      * the time at which [curStepCount] was last reset
@@ -77,6 +96,44 @@ class Game(val tag: Int, val server: Server) : MessageReceiver {
      */
     var networkGameSerializer: NetworkGameSerializer = MainNetworkGameSerializer()
 
+    /**
+     * assigns the ids of the entities added to the game. The clients read the ids in the format of the strategy, so it
+     * should only be changed before entities are added. [UuidIdStrategy] is used by default, because it sends the ids
+     * in the same format as the uuids that were used before
+     */
+    var idStrategy: EntityIdStrategy = UuidIdStrategy()
+
+    /**
+     * used for finding the time of impact of entities using continuous collision
+     */
+    private val timeOfImpactChecker: TimeOfImpactChecker = TimeOfImpactChecker()
+
+    /**
+     * keeps track of the touching entities and dispatches the contact-events once per step
+     */
+    private val contactPairStore: ContactPairStore = ContactPairStore()
+
+    /**
+     * used by [raycast] to find where the ray hits the entities
+     */
+    private val shapeRaycaster: ShapeRaycaster = ShapeRaycaster()
+
+    /**
+     * incremented every time [putRestingEntitiesToSleep] is called; entities that were visited in the current call
+     * have their [Entity.sleepCheckTick] set to it
+     */
+    private var sleepCheckTick: Int = 0
+
+    /**
+     * the entities of the island [putRestingEntitiesToSleep] is currently looking at; reused between ticks
+     */
+    private val sleepIsland: MutableList<Entity> = mutableListOf()
+
+    /**
+     * the collisions found in the current substep; reused between substeps
+     */
+    private val collisions: MutableList<CollisionInformation> = mutableListOf()
+
     /**
      * stores all callbacks that are added using the [inSteps] function
      */
@@ -93,7 +150,13 @@ class Game(val tag: Int, val server: Server) : MessageReceiver {
     private var updateCallbacks: MutableList<() -> Unit> = mutableListOf()
 
     /**
-     * list containing all entities that where removed this step
+     * the systems that update behaviors of their type for all entities at once
+     */
+    private val behaviorSystems: MutableList<BehaviorSystem<*>> = mutableListOf()
+
+    /**
+     * list containing all entities that where removed this step; pooled entities are returned to their
+     * [game.entities.EntityPool] at the start of the next step, after their removal was sent to the clients
      */
     val graveyard: MutableList<Entity> = mutableListOf()
 
@@ -106,21 +169,29 @@ class Game(val tag: Int, val server: Server) : MessageReceiver {
     }
 
     /**
-     * updates entities, does substeps, calls [updateCallbacks] and [updateInStepCallbacks] and [doCollisions]
+     * updates entities, does substeps, calls [updateCallbacks] and [updateInStepCallbacks] and [doCollisions]. Internal,
+     * so the simulation can be stepped without the game-loop and a server
      */
-    private suspend fun update() = coroutineScope { try { //TODO: this is even more stupid than before
+    internal suspend fun update() = coroutineScope { try { //TODO: this is even more stupid than before
+        for (ent in graveyard) ent.pool?.release(ent)
         graveyard.clear()
-        val entsIt = entities.iterator()
-        while (entsIt.hasNext()) {
-            val ent = entsIt.next()
+        // iterating backwards, because removing moves the last entity (which was already visited) to the index
+        for (i in entities.size - 1 downTo 0) {
+            val ent = entities[i]
             if (ent.isMarkedForRemoval) {
                 ent.onRemoval()
+                // entities resting on the removed entity need to start falling again
+                for (contact in ent.contacts) if (contact.isSleeping) contact.wakeUp()
+                ent.dirtyList = null
+                ent.clearDirty()
                 graveyard.add(ent)
-                entsIt.remove()
+                entityRegistry.removeAt(i)
                 continue
             }
-            ent.updateShadow()
+            ent.updateSleepState()
         }
+        putRestingEntitiesToSleep()
+        for (system in behaviorSystems) system.gather(entities)
 //        for (ent in entities) async { ent.update() }
 
         val deferreds = Array(entities.size) { async { entities[it].update() } }
@@ -129,25 +200,134 @@ class Game(val tag: Int, val server: Server) : MessageReceiver {
         for (callback in updateCallbacks) callback()
 
         awaitAll(*deferreds)
-
-        for (i in 1..Conf.SUBSTEP_COUNT) {
-            for (ent in entities) ent.step(Conf.SUBSTEP_COUNT)
-            doCollisions(i == 1)
+        for (system in behaviorSystems) system.run()
+
+        // the resolver is read once, so changing it in a callback doesn't mix the step orders of two resolvers
+        val resolver = collisionResolver
+        val substeps = resolver.substepCount
+        for (i in 1..substeps) {
+            if (resolver.resolvesBeforeStep) {
+                // collisions are resolved before moving the entities, so the velocities the resolver calculated
+                // (including the forces applied in this tick) are used for moving
+                doCollisions(resolver)
+                stepEntities(substeps)
+            } else {
+                stepEntities(substeps)
+                doCollisions(resolver)
+            }
         }
+        contactPairStore.dispatchEvents()
+        collisionChecker.onStepFinished()
+        timeOfImpactChecker.onStepFinished()
     } catch (e: ConcurrentModificationException) { } }
 
     /**
-     * checks which entities are intersection and resolves collisions
+     * puts the entities that are ready to sleep to sleep, but only together with all entities they touch, directly or
+     * through other entities (an island). If only a part of a stack fell asleep, the entities that are still awake
+     * would push against the sleeping ones every tick because of gravity and wake them up again, without the sleeping
+     * ones having collided with the entities below them in that step
+     */
+    private fun putRestingEntitiesToSleep() {
+        sleepCheckTick++
+        val island = sleepIsland
+        for (i in entities.indices) {
+            val start = entities[i]
+            if (!start.isReadyToSleep || start.sleepCheckTick == sleepCheckTick) continue
+            island.clear()
+            island.add(start)
+            start.sleepCheckTick = sleepCheckTick
+            var canSleep = true
+            var next = 0
+            while (next < island.size) {
+                val contacts = island[next++].contacts
+                for (j in contacts.indices) {
+                    val contact = contacts[j]
+                    // static and sleeping entities don't move, so the island doesn't continue through them
+                    if (contact.isStatic || contact.isSleeping || contact.sleepCheckTick == sleepCheckTick) continue
+                    contact.sleepCheckTick = sleepCheckTick
+                    if (!contact.isReadyToSleep) canSleep = false
+                    island.add(contact)
+                }
+            }
+            if (canSleep) for (j in island.indices) island[j].sleep()
+        }
+        island.clear()
+    }
+
+    /**
+     * moves the entities that are awake
      */
-    private suspend fun doCollisions(resetContacts: Boolean) = coroutineScope {
+    private fun stepEntities(substeps: Int) {
+        for (ent in entities) {
+            if (ent.isSleeping) continue
+            if (ent.continuousCollision) stepContinuous(ent, substeps) else ent.step(substeps)
+        }
+    }
+
+    /**
+     * checks which entities are intersection and resolves collisions; either together after all collisions were
+     * found or each one as soon as it is found (see [CollisionResolver.resolvesBeforeStep])
+     */
+    private suspend fun doCollisions(resolver: CollisionResolver) {
         val candidates = broadCollisionChecker.getCollisionCandidates(entities)
-        if (resetContacts) for (ent in entities) ent.contactsAccessor.clear()
-        for (candidatePair in candidates) async {
-            val result = collisionChecker.checkCollision(candidatePair.first, candidatePair.second) ?: return@async
-            candidatePair.first.contactsAccessor.add(candidatePair.second)
-            candidatePair.second.contactsAccessor.add(candidatePair.first)
-            collisionResolver.resolveCollision(result)
+        val collisions = collisions
+        collisions.clear()
+        val resolveTogether = resolver.resolvesBeforeStep
+        coroutineScope {
+            for (candidatePair in candidates) async {
+                val result = collisionChecker.checkCollision(candidatePair.first, candidatePair.second) ?: return@async
+                wakeOnContact(candidatePair.first, candidatePair.second)
+                wakeOnContact(candidatePair.second, candidatePair.first)
+                collisions.add(result)
+                if (!resolveTogether) resolver.resolveCollision(result)
+            }
         }
+        for (i in collisions.indices) contactPairStore.addContact(collisions[i])
+        if (resolveTogether) resolver.resolveCollisions(collisions)
+    }
+
+    /**
+     * steps an entity using continuous collision: the movement is stopped shortly after the first point of impact
+     * with another entity (see [Conf.CONTINUOUS_COLLISION_SKIN]), so the collision is resolved in the next step
+     * instead of the entity moving through the other entity
+     */
+    private fun stepContinuous(ent: Entity, substeps: Int) {
+        val lockState = ent.lockState
+        if (lockState == Entity.LockState.FULL_LOCK || lockState == Entity.LockState.TRANSLATION_LOCK) {
+            ent.step(substeps)
+            return
+        }
+        val start = ent.position
+        val motionX = ent.velocity.x / substeps
+        val motionY = ent.velocity.y / substeps
+        val aabb = ent.aabb
+        var fraction = 1.0
+        broadCollisionChecker.queryArea(
+            entities,
+            aabb.minX + min(motionX, 0.0), aabb.minY + min(motionY, 0.0),
+            aabb.maxX + max(motionX, 0.0), aabb.maxY + max(motionY, 0.0)
+        ) { other ->
+            if (other === ent || other.skipCollisionResolution || !BroadCollisionChecker.canCollide(ent, other)) {
+                return@queryArea true
+            }
+            val timeOfImpact = timeOfImpactChecker.timeOfImpact(ent, motionX, motionY, other)
+            if (timeOfImpact >= 0.0 && timeOfImpact < fraction) fraction = timeOfImpact
+            true
+        }
+        ent.step(substeps)
+        if (fraction >= 1.0) return
+        val length = sqrt(motionX * motionX + motionY * motionY)
+        fraction = min(fraction + Conf.CONTINUOUS_COLLISION_SKIN / length, 1.0)
+        ent.position = Vector2D(start.x + motionX * fraction, start.y + motionY * fraction)
+    }
+
+    /**
+     * wakes [sleeper] up if it is sleeping and [other] is awake and moving fast enough to disturb it. Otherwise the
+     * sleeping entity stays asleep and is treated as static while resolving the collision
+     */
+    private fun wakeOnContact(sleeper: Entity, other: Entity) {
+        if (!sleeper.isSleeping || other.isSleeping || other.isStatic) return
+        if (other.exceedsSleepThresholds()) sleeper.wakeUp()
     }
 
     /**
@@ -168,6 +348,8 @@ class Game(val tag: Int, val server: Server) : MessageReceiver {
         } else IncrementalUpdateMessage(this@Game)
         incTickCounter++
         server.broadcast(tag, message)
+        for (ent in dirtyEntityList) ent.clearDirty()
+        dirtyEntityList.clear()
     }
 
     /**
@@ -211,10 +393,17 @@ class Game(val tag: Int, val server: Server) : MessageReceiver {
      *
      * _Note: when adding a player use [addPlayer] instead_
      * @param ent The entity that should be added
+     * @throws IllegalArgumentException if the entity is already part of a game
      */
     fun addEntity(ent: Entity) {
+        // checked before changing the entity, so adding an entity twice doesn't change the id of a live entity
+        if (ent.handle != Entity.NO_HANDLE) throw IllegalArgumentException("entity is already part of a game")
+        ent.id = idStrategy.nextId()
+        ent.idStrategy = idStrategy
         ent.isMarkedForRemoval = false
-        this.entities.add(ent)
+        ent.clearDirty()
+        ent.dirtyList = dirtyEntityList
+        entityRegistry.add(ent)
         ent.initialize()
     }
 
@@ -270,6 +459,26 @@ class Game(val tag: Int, val server: Server) : MessageReceiver {
         onStopCallbacks.remove(callback)
     }
 
+    /**
+     * adds a system that updates all behaviors of its type at once, instead of every entity updating its behavior
+     * (see [BehaviorSystem])
+     * @throws IllegalArgumentException if a system for the same type of behavior was already added
+     */
+    fun addBehaviorSystem(system: BehaviorSystem<*>) {
+        if (behaviorSystems.any { it.type == system.type }) {
+            throw IllegalArgumentException("a system for ${system.type.simpleName} was already added")
+        }
+        behaviorSystems.add(system)
+    }
+
+    /**
+     * removes a system that was previously added using [addBehaviorSystem]; the entities update the behaviors
+     * themselves again
+     */
+    fun removeBehaviorSystem(system: BehaviorSystem<*>) {
+        if (behaviorSystems.remove(system)) system.unmark()
+    }
+
     /**
      * adds a callback that is called every time the game is updated
      */
@@ -288,6 +497,125 @@ class Game(val tag: Int, val server: Server) : MessageReceiver {
         message.execute(con, this)
     }
 
+    /**
+     * finds the first entity that is hit by a ray. Uses the broad-phase to only check entities close to the ray.
+     *
+     * _Note: the queries use the data of the broad-phase from the last step, so entities added since then are not
+     * found_
+     * @param origin the start of the ray
+     * @param direction the direction of the ray; doesn't need to be a unit vector
+     * @param maxDistance the length of the ray
+     * @param collisionMask only entities that share at least one collision layer with the mask are hit
+     * @param ignore an entity that is never hit, for example the entity casting the ray
+     * @return the closest hit; null if nothing was hit
+     */
+    fun raycast(
+        origin: Vector2D,
+        direction: Vector2D,
+        maxDistance: Double,
+        collisionMask: Long = Entity.ALL_COLLMASK_BITS,
+        ignore: Entity? = null
+    ): RaycastResult? {
+        val length = direction.mag
+        if (length == 0.0 || maxDistance <= 0.0) return null
+        val directionX = direction.x / length * maxDistance
+        val directionY = direction.y / length * maxDistance
+        val raycaster = shapeRaycaster
+        var hit: Entity? = null
+        var hitFraction = 1.0
+        var normalX = 0.0
+        var normalY = 0.0
+        broadCollisionChecker.raycast(entities, origin.x, origin.y, directionX, directionY, 1.0) { ent, maxFraction ->
+            if (ent === ignore || ent.collisionMask and collisionMask == 0L) return@raycast maxFraction
+            val fraction = raycaster.raycast(ent, origin.x, origin.y, directionX, directionY, maxFraction)
+            if (fraction < 0.0) return@raycast maxFraction
+            hit = ent
+            hitFraction = fraction
+            normalX = raycaster.normalX
+            normalY = raycaster.normalY
+            fraction
+        }
+        val ent = hit ?: return null
+        return RaycastResult(
+            ent,
+            Vector2D(origin.x + directionX * hitFraction, origin.y + directionY * hitFraction),
+            Vector2D(normalX, normalY),
+            hitFraction * maxDistance
+        )
+    }
+
+    /**
+     * finds all collidable entities whose bounding-box intersects the area.
+     *
+     * _Note: like [raycast]_
+     * @param collisionMask only entities that share at least one collision layer with the mask are found
+     */
+    fun overlapAABB(
+        minX: Double, minY: Double, maxX: Double, maxY: Double,
+        collisionMask: Long = Entity.ALL_COLLMASK_BITS
+    ): List<Entity> {
+        val result = mutableListOf<Entity>()
+        broadCollisionChecker.queryArea(entities, minX, minY, maxX, maxY) { ent ->
+            if (ent.collisionMask and collisionMask != 0L) result.add(ent)
+            true
+        }
+        return result
+    }
+
+    /**
+     * finds all collidable entities that overlap the shape of an entity, using the narrow-phase [collisionChecker].
+     * The entity doesn't need to be part of the game, so it can be created just for the query.
+     *
+     * _Note: like [raycast]_
+     * @param shape the entity whose shape is used; it is never part of the result
+     * @param collisionMask only entities that share at least one collision layer with the mask are found
+     */
+    fun overlapShape(shape: Entity, collisionMask: Long = shape.collisionMask): List<Entity> {
+        val result = mutableListOf<Entity>()
+        val aabb = shape.aabb
+        broadCollisionChecker.queryArea(entities, aabb.minX, aabb.minY, aabb.maxX, aabb.maxY) { ent ->
+            if (ent === shape || ent.collisionMask and collisionMask == 0L) return@queryArea true
+            if (collisionChecker.checkCollision(shape, ent) != null) result.add(ent)
+            true
+        }
+        return result
+    }
+
+    /**
+     * finds the collidable entity whose position is closest to a point.
+     *
+     * _Note: like [raycast]_
+     * @param point the point
+     * @param maxDistance only entities whose position is at most this far away from the point are found
+     * @param collisionMask only entities that share at least one collision layer with the mask are found
+     * @param filter only entities for which the filter returns true are found; null to find all entities
+     * @return the closest entity; null if there is no entity in range
+     */
+    fun nearestEntity(
+        point: Vector2D,
+        maxDistance: Double,
+        collisionMask: Long = Entity.ALL_COLLMASK_BITS,
+        filter: ((Entity) -> Boolean)? = null
+    ): Entity? {
+        var nearest: Entity? = null
+        var nearestDistanceSquared = maxDistance * maxDistance
+        broadCollisionChecker.queryArea(
+            entities,
+            point.x - maxDistance, point.y - maxDistance, point.x + maxDistance, point.y + maxDistance
+        ) { ent ->
+            if (ent.collisionMask and collisionMask == 0L) return@queryArea true
+            val dx = ent.position.x - point.x
+            val dy = ent.position.y - point.y
+            val distanceSquared = dx * dx + dy * dy
+            if (distanceSquared > nearestDistanceSquared) return@queryArea true
+            if (filter != null && !filter(ent)) return@queryArea true
+            nearest = ent
+            nearestDistanceSquared = distanceSquared
+            true
+        }
+        return nearest
+    }
+
     /**
      * executes a callback after a specified amount of physics-steps have passed
      * @param steps the amount of steps
@@ -235,6 +235,16 @@ public enum KeyCode {
     private final int mask;
     private static final Map<String, KeyCode> nameMap = new HashMap(values().length);
 
+    /**
+     * the values, cached because values() copies the array on every call
+     */
+    private static final KeyCode[] VALUES = values();
+
+    /**
+     * maps codes to keys; split into pages of 256 codes, so only the ranges that contain keys need memory
+     */
+    private static final KeyCode[][] codePages = new KeyCode[256][];
+
     KeyCode(int code, String name, int mask) {
         this.code = code;
         this.name = name;
@@ -298,10 +308,37 @@ public enum KeyCode {
         return (KeyCode)nameMap.get(var0);
     }
 
+    /**
+     * @return the key with the code; null if there is none
+     */
+    public static KeyCode fromCode(int code) {
+        if (code < 0 || code > 0xFFFF) return code == SHORTCUT.code ? SHORTCUT : null;
+        KeyCode[] page = codePages[code >>> 8];
+        return page == null ? null : page[code & 0xFF];
+    }
+
+    /**
+     * @return the key with the ordinal; null if there is none
+     */
+    public static KeyCode fromOrdinal(int ordinal) {
+        return ordinal >= 0 && ordinal < VALUES.length ? VALUES[ordinal] : null;
+    }
+
+    /**
+     * @return the amount of keys
+     */
+    public static int count() {
+        return VALUES.length;
+    }
+
     static {
         KeyCode[] var0 = values();
         for (KeyCode var3 : var0) {
             nameMap.put(var3.name, var3);
+            if (var3.code < 0 || var3.code > 0xFFFF) continue;
+            KeyCode[] page = codePages[var3.code >>> 8];
+            if (page == null) page = codePages[var3.code >>> 8] = new KeyCode[256];
+            page[var3.code & 0xFF] = var3;
         }
     }
     private static class KeyCodeClass {
@@ -1,34 +1,40 @@
 package game
 
+import java.util.concurrent.atomic.AtomicLongArray
+
 /**
- * Helper class to store the key-inputs of a player
+ * Helper class to store the key-inputs of a player. The pressed and consumed keys are stored in bitsets indexed by
+ * [KeyCode.ordinal], so queries are O(1) and updating doesn't allocate. The bitsets are updated atomically word by
+ * word, so the keys can be updated by the connection-thread while the game reads them.
  */
 class KeyInputController {
 
-    private var keys: MutableList<KeyCode> = mutableListOf()
+    private val keys: AtomicLongArray = AtomicLongArray(WORDS)
 
-    private val consumedKeys: MutableList<KeyCode> = mutableListOf()
+    private val consumedKeys: AtomicLongArray = AtomicLongArray(WORDS)
 
     /**
      * starts a key press
      */
     fun startPress(code: KeyCode) {
-        keys.add(code)
+        setBit(keys, code)
     }
 
     /**
      * ends a key press
      */
     fun endPress(code: KeyCode) {
-        keys.remove(code)
-        consumedKeys.remove(code)
+        clearBit(keys, code)
+        clearBit(consumedKeys, code)
     }
 
     /**
      * @return true if the key is pressed
      */
     fun getKeyPressed(code: KeyCode): Boolean {
-        return code in keys && code !in consumedKeys
+        val word = code.ordinal ushr 6
+        val bit = 1L shl code.ordinal
+        return keys.get(word) and consumedKeys.get(word).inv() and bit != 0L
     }
 
     /**
@@ -36,14 +42,14 @@ class KeyInputController {
      * @return true if the key is pressed
      */
     fun getKeyPressedIgnoreConsumed(code: KeyCode): Boolean {
-        return code in keys
+        return keys.get(code.ordinal ushr 6) and (1L shl code.ordinal) != 0L
     }
 
     /**
      * consumes a key-press
      */
     fun consumeKey(code: KeyCode) {
-        consumedKeys.add(code)
+        setBit(consumedKeys, code)
     }
 
     /**
@@ -51,10 +57,13 @@ class KeyInputController {
      * @return true if the key was pressed
      */
     fun tryConsume(code: KeyCode): Boolean {
-        return if (getKeyPressed(code)) {
-            consumeKey(code)
-            true
-        } else false
+        val word = code.ordinal ushr 6
+        val bit = 1L shl code.ordinal
+        while (true) {
+            val consumed = consumedKeys.get(word)
+            if (consumed and bit != 0L || keys.get(word) and bit == 0L) return false
+            if (consumedKeys.compareAndSet(word, consumed, consumed or bit)) return true
+        }
     }
 
     /**
@@ -62,10 +71,83 @@ class KeyInputController {
      * @param clKeys the new keys
      */
     fun updatePresses(clKeys: List<KeyCode>) {
-        val oldKeys = mutableListOf<KeyCode>()
-        for (key in clKeys) if (key !in keys) startPress(key)
-        for (key in keys) if (key !in clKeys) oldKeys.add(key)
-        for (key in oldKeys) endPress(key)
+        for (word in 0 until WORDS) {
+            var bits = 0L
+            for (i in clKeys.indices) {
+                val ordinal = clKeys[i].ordinal
+                if (ordinal ushr 6 == word) bits = bits or (1L shl ordinal)
+            }
+            updateWord(word, bits)
+        }
+    }
+
+    /**
+     * updates the pressed keys using a bitset
+     * @param clKeys the new keys; bit i of word i / 64 is set if the key with the ordinal i is pressed
+     */
+    fun updatePresses(clKeys: LongArray) {
+        for (word in 0 until WORDS) updateWord(word, if (word < clKeys.size) clKeys[word] else 0L)
+    }
+
+    /**
+     * toggles the keys whose bits are set, so a client can send only the keys that changed since its last update
+     * @param changes bit i of word i / 64 is set if the key with the ordinal i was pressed or released
+     */
+    fun togglePresses(changes: LongArray) {
+        for (word in 0 until minOf(WORDS, changes.size)) {
+            val bits = changes[word]
+            if (bits == 0L) continue
+            var pressed: Long
+            while (true) {
+                val old = keys.get(word)
+                pressed = old xor bits
+                if (keys.compareAndSet(word, old, pressed)) break
+            }
+            // released keys are no longer consumed
+            val released = bits and pressed.inv()
+            while (true) {
+                val consumed = consumedKeys.get(word)
+                if (consumed and released == 0L ||
+                    consumedKeys.compareAndSet(word, consumed, consumed and released.inv())) break
+            }
+        }
+    }
+
+    /**
+     * swaps in the pressed keys of one word; keys that were released are no longer consumed
+     */
+    private fun updateWord(word: Int, bits: Long) {
+        keys.set(word, bits)
+        while (true) {
+            val consumed = consumedKeys.get(word)
+            if (consumed and bits == consumed || consumedKeys.compareAndSet(word, consumed, consumed and bits)) return
+        }
+    }
+
+    private fun setBit(bits: AtomicLongArray, code: KeyCode) {
+        val word = code.ordinal ushr 6
+        val bit = 1L shl code.ordinal
+        while (true) {
+            val old = bits.get(word)
+            if (old and bit != 0L || bits.compareAndSet(word, old, old or bit)) return
+        }
+    }
+
+    private fun clearBit(bits: AtomicLongArray, code: KeyCode) {
+        val word = code.ordinal ushr 6
+        val bit = 1L shl code.ordinal
+        while (true) {
+            val old = bits.get(word)
+            if (old and bit == 0L || bits.compareAndSet(word, old, old and bit.inv())) return
+        }
+    }
+
+    companion object {
+
+        /**
+         * the amount of longs needed to store one bit per [KeyCode]
+         */
+        val WORDS: Int = (KeyCode.count() + 63) / 64
     }
 
-}
\ No newline at end of file
+}
@@ -31,34 +31,31 @@ open class MainNetworkGameSerializer : NetworkGameSerializer() {
         val ents = game.entities
         output.writeInt(ents.size)
         for (ent in ents) {
-            ent.shadow.isNew = false
             output.writeInt(ent.identifier)
             ent.serialize(output)
         }
     }
 
     override fun serializeIncremental(output: DataOutputStream, game: Game) {
-        val ents = game.entities
-        for (ent in ents) {
-            if (ent.shadow.isNew) {
+        val ents = game.dirtyEntities
+        for (i in ents.indices) {
+            val ent = ents[i]
+            if (ent.isNew) {
                 output.writeInt(ent.identifier)
                 output.writeBoolean(true)
                 ent.serialize(output)
-                ent.shadow.isNew = false
                 continue
             }
             if (!ent.isDirty()) continue
             output.writeInt(ent.identifier)
             output.writeBoolean(false)
-            output.writeLong(ent.uuid.mostSignificantBits)
-            output.writeLong(ent.uuid.leastSignificantBits)
+            ent.writeId(output)
             ent.serializeInc(output)
         }
         output.writeInt(Int.MIN_VALUE)
         for (ent in game.graveyard) {
             output.writeInt(ent.identifier)
-            output.writeLong(ent.uuid.mostSignificantBits)
-            output.writeLong(ent.uuid.leastSignificantBits)
+            ent.writeId(output)
         }
         output.writeInt(Int.MIN_VALUE)
     }
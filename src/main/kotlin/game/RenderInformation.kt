@@ -1,5 +1,6 @@
 package game
 
+import game.entities.Entity
 import utils.Vector2D
 import utils.compare
 import java.io.DataOutputStream
@@ -23,7 +24,18 @@ abstract class RenderInformation {
 
     abstract override fun equals(other: Any?): Boolean
 
-    abstract fun clone(): RenderInformation
+    /**
+     * the entity using the renderInformation; set by [Entity.renderInformation]
+     */
+    internal var owner: Entity? = null
+
+    /**
+     * marks the renderInformation of the [owner] as changed, so it is sent with the next update. Should be called
+     * from the setters of all fields that are sent in [serialize]
+     */
+    protected fun markDirty() {
+        owner?.markRenderInformationDirty()
+    }
 
 }
 
@@ -40,8 +52,6 @@ class EmptyRenderInfo : RenderInformation()  {
     override fun equals(other: Any?): Boolean {
         return other is EmptyRenderInfo
     }
-
-    override fun clone(): RenderInformation = EmptyRenderInfo()
 }
 
 /**
@@ -55,12 +65,20 @@ class PolyColorRenderInfo : RenderInformation() {
      * the color that the polygon should be rendered in
      */
     var color: Color = Color.valueOf("#ffff00")
+        set(value) {
+            if (value != field) markDirty()
+            field = value
+        }
 
     /**
      * The displacement of each vertex from the center
      * //TODO: remove?
      */
     var scale: Double = 1.0
+        set(value) {
+            if (value != field) markDirty()
+            field = value
+        }
 
     override fun serialize(output: DataOutputStream) {
         output.writeDouble(color.red)
@@ -72,12 +90,6 @@ class PolyColorRenderInfo : RenderInformation() {
     override fun equals(other: Any?): Boolean {
         return other is PolyColorRenderInfo && other.color == color && other.scale == scale
     }
-
-    override fun clone(): RenderInformation {
-        val polyColorRenderInfo = PolyColorRenderInfo()
-        polyColorRenderInfo.color = color
-        return polyColorRenderInfo
-    }
 }
 
 /**
@@ -89,15 +101,43 @@ class PolyColorRenderInfo : RenderInformation() {
  * registered on the client using the same identifier_
  */
 class PolyImageRenderInfo(
-    var offset: Vector2D,
-    var width: Double,
-    var height: Double,
-    var imgIdentifier: String
+    offset: Vector2D,
+    width: Double,
+    height: Double,
+    imgIdentifier: String
 ) : RenderInformation() {
 
     override val identifier: Int = Int.MAX_VALUE - 2
 
+    var offset: Vector2D = offset
+        set(value) {
+            if (value.x != field.x || value.y != field.y) markDirty()
+            field = value
+        }
+
+    var width: Double = width
+        set(value) {
+            if (value != field) markDirty()
+            field = value
+        }
+
+    var height: Double = height
+        set(value) {
+            if (value != field) markDirty()
+            field = value
+        }
+
+    var imgIdentifier: String = imgIdentifier
+        set(value) {
+            if (value != field) markDirty()
+            field = value
+        }
+
     var flip: Boolean = false
+        set(value) {
+            if (value != field) markDirty()
+            field = value
+        }
 
     override fun serialize(output: DataOutputStream) {
         offset.serialize(output)
@@ -111,29 +151,31 @@ class PolyImageRenderInfo(
         return other is PolyImageRenderInfo && other.offset == this.offset && other.width.compare(this.width) &&
                 other.height.compare(this.height) && other.imgIdentifier == this.imgIdentifier && flip == other.flip
     }
+}
+
+/**
+ * a renderInformation that renders a circle in a certain color
+ */
+class CircleColorRenderInfo : RenderInformation() {
 
-    override fun clone(): RenderInformation {
-        val info = PolyImageRenderInfo(offset, width, height, imgIdentifier)
-        info.flip = flip
-        return info
+    override val identifier: Int = Int.MAX_VALUE - 3
+
+    /**
+     * the color that the circle should be rendered in
+     */
+    var color: Color = Color.valueOf("#ffff00")
+        set(value) {
+            if (value != field) markDirty()
+            field = value
+        }
+
+    override fun serialize(output: DataOutputStream) {
+        output.writeDouble(color.red)
+        output.writeDouble(color.green)
+        output.writeDouble(color.blue)
     }
-}
 
-//
-//class CircleColorRenderInfo : RenderInformation() {
-//
-//    override val identifier: Int = Int.MAX_VALUE - 3
-//
-//    var color: Color = Color.valueOf("#ffff00")
-//
-//    override fun serialize(output: DataOutputStream) {
-//        output.writeDouble(color.red)
-//        output.writeDouble(color.green)
-//        output.writeDouble(color.blue)
-//    }
-//
-//    override fun equals(other: Any?): Boolean {
-//        return other is CircleColorRenderInfo && other.color == this.color
-//    }
-//
-//}
\ No newline at end of file
+    override fun equals(other: Any?): Boolean {
+        return other is CircleColorRenderInfo && other.color == this.color
+    }
+}
@@ -0,0 +1,108 @@
+package game.entities
+
+import java.lang.reflect.Modifier
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * stores the behaviors of an entity (see [Entity.addBehavior]). Behaviors are indexed by the id of their class, so
+ * looking up, adding and removing a behavior by its class doesn't need to scan all behaviors. Looking up by an
+ * interface or an open superclass still needs a scan, because the index only knows the exact classes.
+ *
+ * Behaviors are iterated using [snapshot], which is replaced instead of modified when behaviors are added or removed,
+ * so behaviors can add or remove behaviors while they are being iterated
+ */
+class BehaviorStore {
+
+    /**
+     * the behaviors in the order they were added. The array is never modified, so it can be iterated while behaviors
+     * are added or removed; it must not be modified by the caller either
+     */
+    var snapshot: Array<EntityBehavior> = EMPTY
+        private set
+
+    /**
+     * the behaviors indexed by the id of their class (see [typeOf])
+     */
+    private var byTypeId: Array<EntityBehavior?> = arrayOfNulls(0)
+
+    val size: Int
+        get() = snapshot.size
+
+    /**
+     * @return the behavior that is an instance of the type; null if there is none
+     */
+    fun <T : Any> get(type: Class<T>): T? {
+        val behaviorType = typeOf(type)
+        val byTypeId = byTypeId
+        if (behaviorType.id < byTypeId.size) byTypeId[behaviorType.id]?.let { return type.cast(it) }
+        // subclasses of final classes don't exist, so the index already covered all instances
+        if (behaviorType.isFinal) return null
+        for (behavior in snapshot) if (type.isInstance(behavior)) return type.cast(behavior)
+        return null
+    }
+
+    /**
+     * adds the behavior
+     * @return false if a behavior of the same class is already stored
+     */
+    fun add(behavior: EntityBehavior): Boolean {
+        val id = typeOf(behavior.javaClass).id
+        if (id < byTypeId.size && byTypeId[id] != null) return false
+        if (id >= byTypeId.size) byTypeId = byTypeId.copyOf(maxOf(id + 1, byTypeId.size * 2))
+        byTypeId[id] = behavior
+        snapshot = Array(snapshot.size + 1) { if (it < snapshot.size) snapshot[it] else behavior }
+        return true
+    }
+
+    /**
+     * removes all behaviors that are instances of the type
+     * @return true if a behavior was removed
+     */
+    fun remove(type: Class<*>): Boolean {
+        val behaviorType = typeOf(type)
+        if (behaviorType.isFinal) {
+            val id = behaviorType.id
+            if (id >= byTypeId.size || byTypeId[id] == null) return false
+            removeFromSnapshot(byTypeId[id]!!)
+            byTypeId[id] = null
+            return true
+        }
+        var removed = false
+        for (behavior in snapshot) {
+            if (!type.isInstance(behavior)) continue
+            removeFromSnapshot(behavior)
+            byTypeId[typeOf(behavior.javaClass).id] = null
+            removed = true
+        }
+        return removed
+    }
+
+    private fun removeFromSnapshot(behavior: EntityBehavior) {
+        val old = snapshot
+        val index = old.indexOf(behavior)
+        snapshot = Array(old.size - 1) { if (it < index) old[it] else old[it + 1] }
+    }
+
+    /**
+     * the id of a class and whether it can have subclasses
+     */
+    private class BehaviorType(val id: Int, val isFinal: Boolean)
+
+    private companion object {
+
+        val EMPTY: Array<EntityBehavior> = arrayOf()
+
+        val typeIdCounter: AtomicInteger = AtomicInteger()
+
+        /**
+         * assigns every class an id the first time it is used
+         */
+        val types: ClassValue<BehaviorType> = object : ClassValue<BehaviorType>() {
+            override fun computeValue(type: Class<*>): BehaviorType =
+                BehaviorType(typeIdCounter.getAndIncrement(), Modifier.isFinal(type.modifiers))
+        }
+
+        fun typeOf(type: Class<*>): BehaviorType = types.get(type)
+    }
+
+}
@@ -0,0 +1,226 @@
+package game.entities
+
+import utils.Vector2D
+import kotlin.math.abs
+
+/**
+ * processes all behaviors of one type in a game at once instead of calling [EntityBehavior.update] for every entity.
+ * Every tick, the game marks the behaviors as batched before the entities are updated, so the entities don't update
+ * them themselves. After the updates, the entities that are awake are loaded into a [BehaviorBatch], which copies
+ * their velocities into primitive arrays, so [process] can update them in one tight loop, and the velocities the
+ * system changed are written back to the entities.
+ *
+ * Systems are optional (see [game.Game.addBehaviorSystem]); behaviors of types without a system in the game are
+ * updated by their entity like before. Entities that are sleeping after the updates are not part of the batch.
+ * @param type the type of the behaviors processed by the system
+ */
+abstract class BehaviorSystem<T : EntityBehavior>(val type: Class<T>) {
+
+    private val batch: BehaviorBatch = BehaviorBatch()
+
+    /**
+     * the behaviors that were marked as batched in the last call to [gather] and their entities, including sleeping
+     * entities
+     */
+    private val marked: MutableList<T> = mutableListOf()
+    private val markedEntities: MutableList<Entity> = mutableListOf()
+
+    /**
+     * called for every entity that is added to the batch (after the entities were updated); systems that need
+     * parameters of the behaviors copy them into their own arrays here
+     * @param index the index of the entity in the batch
+     */
+    protected open fun gather(index: Int, behavior: T) { }
+
+    /**
+     * updates the entities in the batch by changing the arrays of the batch
+     */
+    protected abstract fun process(batch: BehaviorBatch)
+
+    /**
+     * marks the behaviors of all entities that have one as batched, so the entities don't update them themselves.
+     * Sleeping entities are marked too, because they can be woken up by the update of another entity
+     */
+    internal fun gather(entities: List<Entity>) {
+        unmark()
+        for (i in entities.indices) {
+            val ent = entities[i]
+            val behavior = ent.getBehavior(type) ?: continue
+            behavior.isBatched = true
+            marked.add(behavior)
+            markedEntities.add(ent)
+        }
+    }
+
+    /**
+     * fills the batch with the marked entities that are awake now, after the entities were updated, and loads their
+     * velocities
+     */
+    private fun load() {
+        batch.clear()
+        for (i in marked.indices) {
+            val ent = markedEntities[i]
+            if (ent.isSleeping) continue
+            gather(batch.add(ent), marked[i])
+        }
+        batch.load()
+    }
+
+    /**
+     * processes the batch, writes the results back and unmarks the behaviors
+     */
+    internal fun run() {
+        load()
+        process(batch)
+        batch.writeBack()
+        batch.clear()
+        unmark()
+    }
+
+    /**
+     * unmarks the behaviors, so their entities update them again if the system isn't used in the next tick
+     */
+    internal fun unmark() {
+        for (i in marked.indices) marked[i].isBatched = false
+        marked.clear()
+        markedEntities.clear()
+    }
+
+    /**
+     * @return the array if it can hold [size] elements, else a bigger copy
+     */
+    protected fun ensureCapacity(array: DoubleArray, size: Int): DoubleArray =
+        if (size <= array.size) array else array.copyOf(maxOf(size, array.size * 2))
+
+}
+
+/**
+ * the entities processed by a [BehaviorSystem] in one tick and their velocities in primitive arrays. Only the first
+ * [size] elements of the arrays are valid
+ */
+class BehaviorBatch internal constructor() {
+
+    var size: Int = 0
+        private set
+
+    var entities: Array<Entity?> = arrayOfNulls(64)
+        private set
+
+    var velocityX: DoubleArray = DoubleArray(64)
+        private set
+
+    var velocityY: DoubleArray = DoubleArray(64)
+        private set
+
+    var angularVelocity: DoubleArray = DoubleArray(64)
+        private set
+
+    /**
+     * 1 / mass of the entities; 0 for entities with infinite mass
+     */
+    var inverseMass: DoubleArray = DoubleArray(64)
+        private set
+
+    /**
+     * @return the index of the entity
+     */
+    internal fun add(ent: Entity): Int {
+        if (size == entities.size) {
+            val capacity = size * 2
+            entities = entities.copyOf(capacity)
+            velocityX = velocityX.copyOf(capacity)
+            velocityY = velocityY.copyOf(capacity)
+            angularVelocity = angularVelocity.copyOf(capacity)
+            inverseMass = inverseMass.copyOf(capacity)
+        }
+        entities[size] = ent
+        return size++
+    }
+
+    /**
+     * copies the current velocities and masses of the entities into the arrays. Called after the entities were
+     * updated, so changes made in the update (like forces applied by other behaviors) are part of the batch
+     */
+    internal fun load() {
+        for (i in 0 until size) {
+            val ent = entities[i]!!
+            val velocity = ent.velocity
+            velocityX[i] = velocity.x
+            velocityY[i] = velocity.y
+            angularVelocity[i] = ent.angularVelocity
+            inverseMass[i] = 1 / ent.mass
+        }
+    }
+
+    /**
+     * sets the velocities the system changed since [load]; only the changed ones, because [Vector2D] is immutable,
+     * so every write allocates, and because fields the system didn't touch must not be overwritten
+     */
+    internal fun writeBack() {
+        for (i in 0 until size) {
+            val ent = entities[i]!!
+            val velocity = ent.velocity
+            if (velocity.x != velocityX[i] || velocity.y != velocityY[i]) ent.velocity = Vector2D(velocityX[i], velocityY[i])
+            if (ent.angularVelocity != angularVelocity[i]) ent.angularVelocity = angularVelocity[i]
+        }
+    }
+
+    /**
+     * releases the entities, so the batch doesn't keep removed entities alive
+     */
+    internal fun clear() {
+        entities.fill(null, 0, size)
+        size = 0
+    }
+
+}
+
+/**
+ * applies the gravity of all [GravityBehavior]s in one pass; the same as the behaviors would do, without allocating a
+ * force-vector per entity
+ */
+class GravitySystem : BehaviorSystem<GravityBehavior>(GravityBehavior::class.java) {
+
+    private var gravity: DoubleArray = DoubleArray(64)
+
+    override fun gather(index: Int, behavior: GravityBehavior) {
+        gravity = ensureCapacity(gravity, index + 1)
+        gravity[index] = behavior.gravity
+    }
+
+    override fun process(batch: BehaviorBatch) {
+        val velocityY = batch.velocityY
+        val inverseMass = batch.inverseMass
+        val gravity = gravity
+        for (i in 0 until batch.size) {
+            // the force is gravity * mass, so the change of the velocity is the gravity; static entities aren't moved
+            if (inverseMass[i] != 0.0) velocityY[i] -= gravity[i]
+        }
+    }
+
+}
+
+/**
+ * applies the angular friction of all [FrictionBehaviour]s in one pass
+ */
+class FrictionSystem : BehaviorSystem<FrictionBehaviour>(FrictionBehaviour::class.java) {
+
+    private var angularFriction: DoubleArray = DoubleArray(64)
+
+    override fun gather(index: Int, behavior: FrictionBehaviour) {
+        angularFriction = ensureCapacity(angularFriction, index + 1)
+        angularFriction[index] = behavior.angularFriction
+    }
+
+    override fun process(batch: BehaviorBatch) {
+        val angularVelocity = batch.angularVelocity
+        val angularFriction = angularFriction
+        for (i in 0 until batch.size) {
+            val velocity = angularVelocity[i]
+            val friction = abs(angularFriction[i] + velocity * 0.2)
+            if (velocity > 0) angularVelocity[i] = (velocity - friction).coerceAtLeast(0.0)
+            else if (velocity < 0) angularVelocity[i] = (velocity + friction).coerceAtMost(0.0)
+        }
+    }
+
+}
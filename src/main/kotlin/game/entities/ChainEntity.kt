@@ -0,0 +1,172 @@
+package game.entities
+
+import game.physics.AABB
+import game.physics.DynamicAabbTree
+import utils.Utils
+import utils.Vector2D
+import java.io.DataOutputStream
+import kotlin.math.sqrt
+
+/**
+ * a static entity made of a chain of line-segments. Used to represent a whole terrain surface as one entity instead of
+ * many static [PolygonEntity]s. The segments are stored in a [DynamicAabbTree], so the narrow-phase only checks the
+ * segments close to the other entity.
+ *
+ * Segments are two-sided and have no thickness, so fast entities can pass through them; see
+ * [Entity.continuousCollision].
+ *
+ * _Note: the chain is always static and its rotation is ignored_
+ * @param vertices the absolute vertices of the chain; each vertex is connected to the next one
+ * @param isLoop if true, the last vertex is also connected to the first one
+ */
+open class ChainEntity(vertices: Array<Vector2D>, val isLoop: Boolean = false) : Entity(Utils.findVertexAverage(vertices)) {
+
+    override val identifier: Int = Int.MAX_VALUE - 2
+
+    /**
+     * the bounding-box of all segments
+     */
+    override val aabb: AABB
+        get() {
+            updateTransformCache()
+            return bounds
+        }
+
+    private val bounds: AABB = AABB()
+
+    /**
+     * the x-coordinates of the vertices relative to the position
+     */
+    private val localVerticesX: DoubleArray
+
+    /**
+     * the y-coordinates of the vertices relative to the position
+     */
+    private val localVerticesY: DoubleArray
+
+    /**
+     * the amount of segments; segment i connects vertex i to vertex i + 1 (or to vertex 0 for the last segment of a
+     * loop)
+     */
+    val segmentCount: Int
+
+    /**
+     * the x-coordinates of the vertices in the game world; only up-to-date after calling [updateTransformCache]
+     */
+    internal val worldVerticesX: DoubleArray
+
+    /**
+     * the y-coordinates of the vertices in the game world; only up-to-date after calling [updateTransformCache]
+     */
+    internal val worldVerticesY: DoubleArray
+
+    /**
+     * the x-coordinates of the unit normals of the segments; the normal of a segment points to the left when going
+     * from its first to its second vertex
+     */
+    internal val segmentNormalsX: DoubleArray
+
+    /**
+     * the y-coordinates of the unit normals of the segments; see [segmentNormalsX]
+     */
+    internal val segmentNormalsY: DoubleArray
+
+    /**
+     * the segments, stored relative to the position, so the tree doesn't need to be rebuilt when the chain is moved
+     */
+    private val segmentTree: DynamicAabbTree<Int> = DynamicAabbTree()
+
+    /**
+     * the position for which the world-space vertices were last calculated
+     */
+    private var cachedPosition: Vector2D? = null
+
+    init {
+        if (vertices.size < 2) throw IllegalArgumentException("a chain needs at least two vertices")
+        val n = vertices.size
+        val position = this.position
+        localVerticesX = DoubleArray(n) { vertices[it].x - position.x }
+        localVerticesY = DoubleArray(n) { vertices[it].y - position.y }
+        worldVerticesX = DoubleArray(n)
+        worldVerticesY = DoubleArray(n)
+        segmentCount = if (isLoop && n > 2) n else n - 1
+        segmentNormalsX = DoubleArray(segmentCount)
+        segmentNormalsY = DoubleArray(segmentCount)
+        for (i in 0 until segmentCount) {
+            val next = segmentEnd(i)
+            val dx = localVerticesX[next] - localVerticesX[i]
+            val dy = localVerticesY[next] - localVerticesY[i]
+            val length = sqrt(dx * dx + dy * dy)
+            if (length > 0.0) {
+                segmentNormalsX[i] = -dy / length
+                segmentNormalsY[i] = dx / length
+            }
+            segmentTree.insert(
+                minOf(localVerticesX[i], localVerticesX[next]), minOf(localVerticesY[i], localVerticesY[next]),
+                maxOf(localVerticesX[i], localVerticesX[next]), maxOf(localVerticesY[i], localVerticesY[next]),
+                i
+            )
+        }
+        mass = Double.POSITIVE_INFINITY
+        inertia = Double.POSITIVE_INFINITY
+        lockState = LockState.FULL_LOCK
+        canSleep = false
+    }
+
+    /**
+     * @return the index of the second vertex of the segment
+     */
+    fun segmentEnd(segment: Int): Int = if (segment + 1 == localVerticesX.size) 0 else segment + 1
+
+    /**
+     * calls the callback with the index of every segment whose bounding-box intersects the area (in world-space).
+     * The callback returns false to stop the query
+     */
+    fun querySegments(minX: Double, minY: Double, maxX: Double, maxY: Double, callback: DynamicAabbTree.QueryCallback<Int>) {
+        val position = this.position
+        segmentTree.query(minX - position.x, minY - position.y, maxX - position.x, maxY - position.y, callback)
+    }
+
+    /**
+     * recalculates the world-space vertices and the [aabb] if the position changed since the last call
+     */
+    internal fun updateTransformCache() {
+        val position = this.position
+        if (position === cachedPosition) return
+        var minX = Double.MAX_VALUE
+        var minY = Double.MAX_VALUE
+        var maxX = -Double.MAX_VALUE
+        var maxY = -Double.MAX_VALUE
+        for (i in localVerticesX.indices) {
+            val x = position.x + localVerticesX[i]
+            val y = position.y + localVerticesY[i]
+            worldVerticesX[i] = x
+            worldVerticesY[i] = y
+            if (x < minX) minX = x
+            if (x > maxX) maxX = x
+            if (y < minY) minY = y
+            if (y > maxY) maxY = y
+        }
+        bounds.set(minX, minY, maxX, maxY)
+        cachedPosition = position
+    }
+
+    /**
+     * the vertices are sent as float-offsets from the position, which is precise enough for the client and halves
+     * the size compared to sending them as doubles
+     */
+    override fun serialize(output: DataOutputStream) {
+        writeId(output)
+        output.writeBoolean(output === player?.clientConnection?.output) //TODO: do better
+        position.serialize(output)
+        output.writeBoolean(isLoop)
+        output.writeInt(localVerticesX.size)
+        for (i in localVerticesX.indices) {
+            output.writeFloat(localVerticesX[i].toFloat())
+            output.writeFloat(localVerticesY[i].toFloat())
+        }
+        output.writeInt(renderInformation.identifier)
+        renderInformation.serialize(output)
+    }
+
+}
@@ -6,22 +6,39 @@ import java.io.DataOutputStream
 import kotlin.math.pow
 
 /**
- * **dosent work lol**
+ * a CircleEntity
+ * @param position the position of the center of the entity
+ * @param radius the radius of the circle
+ * @param density the density of the material of the entity (sets mass indirectly in combination with area)
  */
-class CircleEntity(position: Vector2D, val radius: Double, density: Double) : Entity(position) {
+open class CircleEntity(position: Vector2D, val radius: Double, density: Double) : Entity(position) {
 
     override val identifier: Int = Int.MAX_VALUE - 1
 
-    override val aabb: AABB = getCircleAABB(radius)
+    override val aabb: AABB
+        get() {
+            val position = this.position
+            if (position !== boundsPosition) {
+                bounds.set(position.x - radius, position.y - radius, position.x + radius, position.y + radius)
+                boundsPosition = position
+            }
+            return bounds
+        }
+
+    private val bounds: AABB = AABB()
+
+    /**
+     * the position for which [bounds] was last calculated
+     */
+    private var boundsPosition: Vector2D? = null
 
     init {
         mass = Math.PI * radius.pow(2) * density
-        inertia = (Math.PI * radius.pow(4)) / 4
+        inertia = 0.5 * mass * radius * radius
     }
 
     override fun serialize(output: DataOutputStream) {
-        output.writeLong(uuid.mostSignificantBits)
-        output.writeLong(uuid.leastSignificantBits)
+        writeId(output)
         output.writeBoolean(output === player?.clientConnection?.output) //TODO: do better
         position.serialize(output)
         output.writeDouble(rotation)
@@ -30,8 +47,4 @@ class CircleEntity(position: Vector2D, val radius: Double, density: Double) : En
         renderInformation.serialize(output)
     }
 
-    private fun getCircleAABB(radius: Double): AABB {
-        return AABB(radius * 2, radius * 2)
-    }
-
 }
\ No newline at end of file
@@ -2,10 +2,11 @@ package game.entities
 
 import game.*
 import game.physics.AABB
-import game.entities.shadow.EntityShadow
+import game.physics.Contact
 import utils.Vector2D
 import java.io.DataOutputStream
-import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.abs
 
 /**
  * an entity in the game
@@ -14,24 +15,49 @@ import java.util.*
 abstract class Entity(position: Vector2D) {
 
     /**
-     * the position of the entity (center)
+     * the position of the entity (center); changing it wakes the entity up
      */
     var position: Vector2D = position
+        set(value) {
+            val threshold = positionSendThreshold
+            if (abs(value.x - sentPositionX) > threshold || abs(value.y - sentPositionY) > threshold) {
+                markDirty(DIRTY_POSITION)
+            }
+            field = value
+            if (isSleeping) wakeUp()
+        }
 
     /**
-     * the rotation of the entity around its center in rad
+     * the rotation of the entity around its center in rad; changing it wakes the entity up
      */
     var rotation: Double = 0.0
+        set(value) {
+            // the rotation wraps around, so the difference is taken on the circle
+            if (abs(Math.IEEEremainder(value - sentRotation, 2 * Math.PI)) > rotationSendThreshold) {
+                markDirty(DIRTY_ROTATION)
+            }
+            field = value
+            if (isSleeping) wakeUp()
+        }
 
     /**
-     * the current velocity of the entity
+     * the current velocity of the entity; setting it to a non-zero value wakes the entity up
      */
     var velocity: Vector2D = Vector2D()
+        set(value) {
+            field = value
+            if (isSleeping && (value.x != 0.0 || value.y != 0.0)) wakeUp()
+        }
 
     /**
-     * the current angular velocity of the entity (how fast it rotates)
+     * the current angular velocity of the entity (how fast it rotates); setting it to a non-zero value wakes the
+     * entity up
      */
     var angularVelocity: Double = 0.0
+        set(value) {
+            field = value
+            if (isSleeping && value != 0.0) wakeUp()
+        }
 
     /**
      * if the entity is associated with a player, this variable is set to the player, else null
@@ -66,27 +92,85 @@ abstract class Entity(position: Vector2D) {
     var inertia: Double = 1.0
 
     /**
-     * the shadow stores previous the previous values of various fields of the entity (for example position, rotation...)
-     * this is necessary for incremental serialization
+     * the fields that changed since the last update was sent to the clients; a combination of the DIRTY-constants in
+     * the companion. The bits are set by the setters of the fields and cleared once the update was sent, so entities
+     * that didn't change don't need to be compared
      */
-    var shadow: EntityShadow = EntityShadow()
-        protected set
+    var dirtyFlags: Int = 0
+        private set
 
     /**
-     * the renderInformation that stores information about how the entity should be rendered on the client
+     * the position is only marked as dirty when it moved further than this (on one of the axes) from the position
+     * that was last sent to the clients. Small movements, like resting entities jittering, are not sent, but slow
+     * movements still are once they add up
+     */
+    var positionSendThreshold: Double = Conf.SEND_POSITION_THRESHOLD
+
+    /**
+     * like [positionSendThreshold], for the rotation in rad
+     */
+    var rotationSendThreshold: Double = Conf.SEND_ROTATION_THRESHOLD
+
+    /**
+     * the position and rotation that were last sent to the clients
+     */
+    private var sentPositionX: Double = position.x
+    private var sentPositionY: Double = position.y
+    private var sentRotation: Double = 0.0
+
+    /**
+     * the list the entity adds itself to when it becomes dirty; set by the game the entity is part of
+     */
+    internal var dirtyList: MutableList<Entity>? = null
+
+    /**
+     * the renderInformation that stores information about how the entity should be rendered on the client. Changes to
+     * the renderInformation mark the entity as dirty, so a renderInformation should only be used by one entity
      */
     var renderInformation: RenderInformation = EmptyRenderInfo()
+        set(value) {
+            if (value === field) return
+            field.owner = null
+            value.owner = this
+            field = value
+            markDirty(DIRTY_RENDER_INFORMATION)
+        }
+
+    init {
+        renderInformation.owner = this
+    }
 
     /**
-     * a list of all Behaviours this entity has
+     * all Behaviours this entity has
      */
-    protected var behaviors: MutableList<EntityBehavior> = mutableListOf()
-        private set
+    protected val behaviors: BehaviorStore = BehaviorStore()
+
+    /**
+     * the id of the entity. Used to uniquely identify the entity when sending updates to the client; assigned by the
+     * [EntityIdStrategy] of the game when the entity is added. [NO_ID] if the entity was never added to a game
+     */
+    var id: Long = NO_ID
+        internal set
+
+    /**
+     * the strategy that assigned the [id]; used for writing it
+     */
+    internal var idStrategy: EntityIdStrategy? = null
 
     /**
-     * the uuid of the entity. Used to uniquely identify the entity when sending updates to the client
+     * a small id that is unique for every entity created while the server is running. Used by the physics to store
+     * information about pairs of entities in primitive keys (see [game.physics.CollisionChecker.pairKey])
      */
-    val uuid: UUID = UUID.randomUUID()
+    val physicsId: Int = physicsIdCounter.getAndIncrement()
+
+    /**
+     * the handle of the entity in the [game.EntityRegistry] of the game it is part of; [NO_HANDLE] if it isn't part of
+     * a game. The handle of a removed entity doesn't find the entity that reuses its slot until the slot was reused
+     * 2048 times, which takes about two million removals (see [game.EntityRegistry]), so handles should not be kept
+     * for longer than that
+     */
+    var handle: Int = NO_HANDLE
+        internal set
 
     var isMarkedForRemoval: Boolean = false
         internal set
@@ -106,6 +190,38 @@ abstract class Entity(position: Vector2D) {
      */
     var lockState: LockState = LockState.NONE
 
+    /**
+     * true if the entity can't be moved by collisions, because it has an infinite mass or is fully locked
+     */
+    val isStatic: Boolean
+        get() = mass == Double.POSITIVE_INFINITY || lockState == LockState.FULL_LOCK
+
+    /**
+     * if true, the movement of the entity is checked for collisions along its whole path, so it doesn't move through
+     * thin entities when it is fast. This is more expensive, so it should only be enabled for small, fast entities
+     * (like projectiles)
+     */
+    var continuousCollision: Boolean = false
+
+    /**
+     * if false, the entity is never put to sleep
+     */
+    var canSleep: Boolean = true
+
+    /**
+     * true if the entity is sleeping. An entity is put to sleep when its velocity and angular velocity stay below the
+     * thresholds set in [Conf] for a while, together with all entities it touches (see [game.Game]). Sleeping entities are not moved, are not checked for collisions with other
+     * sleeping or static entities and act like static entities when colliding with entities that are awake. They are
+     * woken up by collisions with moving entities, by applying forces and by changing their position or velocity
+     */
+    var isSleeping: Boolean = false
+        private set
+
+    /**
+     * the amount of ticks the entity was below the sleep-thresholds in a row
+     */
+    private var sleepTicks: Int = 0
+
     /**
      * The collisionMask of the entity. Each bit of the long value represents a collision layer. Entities only collide
      * with other entities if they have at least one layer in common
@@ -113,12 +229,13 @@ abstract class Entity(position: Vector2D) {
     var collisionMask: Long = DEFAULT_COLLMASK_BIT
 
     /**
-     * all other entities this entity touched in the last step
+     * all other entities this entity is currently touching. Only changes when a contact begins or ends (see
+     * [onContactBegin] and [onContactEnd])
      */
-    protected open val contacts: MutableList<Entity> = mutableListOf()
+    val contacts: List<Entity>
+        get() = contactList
 
-    internal val contactsAccessor: MutableList<Entity> //TODO: theres probably a better way to do this
-        get() = contacts
+    private val contactList: MutableList<Entity> = mutableListOf()
 
     /**
      * used to uniquely identify the entity-type when sending updates to the client
@@ -126,7 +243,8 @@ abstract class Entity(position: Vector2D) {
     abstract val identifier: Int
 
     /**
-     * the axis-aligned bounding-box of the object. Used for broad-phase collision detection
+     * the axis-aligned bounding-box of the object in world-space; kept up to date with the position and rotation. Used
+     * for broad-phase collision detection
      */
     abstract val aabb: AABB
 
@@ -141,11 +259,13 @@ abstract class Entity(position: Vector2D) {
      * _Note: when overriding, call `super.update()` for behaviours and keyinputs to be updated correctly._
      */
     open fun update() {
-        for (behavior in this.behaviors) behavior.update(this)
+        // iterating the snapshot, so behaviors can add or remove behaviors while being updated
+        for (behavior in this.behaviors.snapshot) if (!behavior.isBatched) behavior.update(this)
     }
 
     /**
-     * called every substep of the physics-simulation. The amount of substeps is set by the [Conf] class.
+     * called every substep of the physics-simulation. The amount of substeps is set by the collisionResolver of the
+     * game (see [game.physics.CollisionResolver.substepCount]).
      * _Note: when overriding, call `super.step()` for position and rotation to be updated correctly._
      * @param substeps the amount of substeps calculated each physics-step
      */
@@ -164,8 +284,11 @@ abstract class Entity(position: Vector2D) {
      * @param force the direction and magnitude of the force
      * @param offset the offset from the center at which the force is applied; offsenter forces lead to the entity
      * starting to rotate. default is (0, 0) = center
+     * @param wake if true the entity is woken up; if false and the entity is sleeping, the force is ignored. Forces
+     * that are applied constantly (like gravity) should not wake the entity, so it can fall asleep
      */
-    fun applyForce(force: Vector2D, offset: Vector2D = Vector2D()) {
+    fun applyForce(force: Vector2D, offset: Vector2D = Vector2D(), wake: Boolean = true) {
+        if (wake) wakeUp() else if (isSleeping) return
         velocity += force * (1 / mass)
         angularVelocity += (1 / inertia) * (offset cross force)
     }
@@ -173,11 +296,83 @@ abstract class Entity(position: Vector2D) {
     /**
      * applies a purely rotational force to the entity
      * @param force the rotational force in rad
+     * @param wake like in [applyForce]
      */
-    fun applyAngularForce(force: Double) {
+    fun applyAngularForce(force: Double, wake: Boolean = true) {
+        if (wake) wakeUp() else if (isSleeping) return
         this.angularVelocity += force / this.inertia
     }
 
+    /**
+     * the index of the entity in the solver of the current step; only used by
+     * [game.physics.SequentialImpulseCollisionResolver]
+     */
+    internal var solverIndex: Int = -1
+
+    /**
+     * the inverse of the mass used when resolving collisions; 0 if the entity has infinite mass or is sleeping
+     */
+    internal val inverseMass: Double
+        get() = if (isSleeping) 0.0 else 1 / mass
+
+    /**
+     * the inverse of the inertia used when resolving collisions; 0 if the entity has infinite inertia or is sleeping
+     */
+    internal val inverseInertia: Double
+        get() = if (isSleeping) 0.0 else 1 / inertia
+
+    /**
+     * wakes the entity up and resets the time it has been resting
+     */
+    fun wakeUp() {
+        isSleeping = false
+        sleepTicks = 0
+    }
+
+    /**
+     * @return true if the velocity or the angular velocity of the entity is above the sleep-thresholds
+     */
+    internal fun exceedsSleepThresholds(): Boolean {
+        val velocity = this.velocity
+        return velocity.x * velocity.x + velocity.y * velocity.y >
+                Conf.SLEEP_LINEAR_THRESHOLD * Conf.SLEEP_LINEAR_THRESHOLD ||
+                abs(angularVelocity) > Conf.SLEEP_ANGULAR_THRESHOLD
+    }
+
+    /**
+     * called once every tick; counts how long the entity has been resting, or wakes it up if it started moving. The
+     * entity is not put to sleep here, because it has to fall asleep together with the entities it touches (see
+     * [isReadyToSleep])
+     */
+    internal fun updateSleepState() {
+        if (!canSleep || isStatic || exceedsSleepThresholds()) {
+            if (isSleeping || sleepTicks != 0) wakeUp()
+            return
+        }
+        if (isSleeping || sleepTicks >= Conf.SLEEP_TICKS) return
+        sleepTicks++
+    }
+
+    /**
+     * true if the entity is awake and has been resting for [Conf.SLEEP_TICKS] ticks
+     */
+    internal val isReadyToSleep: Boolean
+        get() = !isSleeping && sleepTicks >= Conf.SLEEP_TICKS
+
+    /**
+     * puts the entity to sleep; called by the game once the entity and all entities it touches are ready to sleep
+     */
+    internal fun sleep() {
+        velocity = Vector2D()
+        angularVelocity = 0.0
+        isSleeping = true
+    }
+
+    /**
+     * the tick in which the game last visited the entity while looking for entities that can fall asleep
+     */
+    internal var sleepCheckTick: Int = -1
+
     /**
      * adds a behaviour to the behaviours of the entity
      *
@@ -187,30 +382,31 @@ abstract class Entity(position: Vector2D) {
      * @param T the type of the behavior that extends EntityBehavior
      */
     inline fun <reified T : EntityBehavior> addBehavior(behavior: T) {
-        if (getBehavior<T>() != null) {
+        if (getBehavior<T>() != null || !`access$behaviors`.add(behavior)) {
             Conf.logger.warning("Tried adding a behaviour of a type that is already added. " +
                     "behaviour: $behavior, entity: $this")
-            return
         }
-        this.`access$behaviors`.add(behavior)
     }
 
     /**
-     * removes a behaviour of a specified type
+     * removes all behaviours of a specified type
      * @param T the type of the behavior
      */
-    inline fun <reified T> removeBehavior() {
-        for (behaviour in `access$behaviors`) if (behaviour is T) `access$behaviors`.remove(behaviour) //lol
+    inline fun <reified T : Any> removeBehavior() {
+        `access$behaviors`.remove(T::class.java)
     }
 
     /**
      * gets a behavior of a specified type
      * @param T the type of the behavior
      */
-    inline fun <reified T> getBehavior(): T? {
-        for (behavior in `access$behaviors`) if (behavior is T) return behavior
-        return null
-    }
+    inline fun <reified T : Any> getBehavior(): T? = `access$behaviors`.get(T::class.java)
+
+    /**
+     * gets a behavior of a specified type
+     * @param type the type of the behavior
+     */
+    fun <T : Any> getBehavior(type: Class<T>): T? = behaviors.get(type)
 
     /**
      * translates the position of the object
@@ -221,12 +417,12 @@ abstract class Entity(position: Vector2D) {
     }
 
     /**
-     * updates the [shadow] with the current values
+     * writes the [id] in the format of the [EntityIdStrategy] of the game
+     * @throws IllegalStateException if the entity was never added to a game
      */
-    internal open fun updateShadow() {
-        shadow.position = position
-        shadow.rotation = rotation
-        shadow.renderInformation = renderInformation.clone()
+    fun writeId(output: DataOutputStream) {
+        val strategy = idStrategy ?: throw IllegalStateException("entity has no id, because it was never added to a game")
+        strategy.writeId(id, output)
     }
 
     /**
@@ -236,23 +432,23 @@ abstract class Entity(position: Vector2D) {
     abstract fun serialize(output: DataOutputStream)
 
     /**
-     * serializes the entity incrementally; should only send fields that are different from the fields stored by the
-     * [shadow]
+     * serializes the entity incrementally; should only send the fields that are marked in [dirtyFlags]
      *
      * _Note: when calling this function from an override using `super.serializeInc()` it will send postion, rotation
-     * and renderInformation if they differ from the shadow-values_
+     * and renderInformation if they are dirty_
      * @param output the outputStream
      */
     open fun serializeInc(output: DataOutputStream) {
-        if (position != shadow.position) {
+        val dirtyFlags = dirtyFlags
+        if (dirtyFlags and DIRTY_POSITION != 0) {
             output.writeByte(0)
             position.serialize(output)
         }
-        if (rotation != shadow.rotation) {
+        if (dirtyFlags and DIRTY_ROTATION != 0) {
             output.writeByte(1)
             output.writeDouble(rotation)
         }
-        if (renderInformation != shadow.renderInformation) {
+        if (dirtyFlags and DIRTY_RENDER_INFORMATION != 0) {
             output.writeByte(2)
             output.writeInt(renderInformation.identifier)
             renderInformation.serialize(output)
@@ -261,12 +457,80 @@ abstract class Entity(position: Vector2D) {
     }
 
     /**
-     * @return true if the fields of the entity differ from the fields in the [shadow]
+     * @return true if any field of the entity changed since the last update was sent
+     */
+    open fun isDirty(): Boolean = dirtyFlags != 0
+
+    /**
+     * true if the entity was added to the game since the last update was sent, so it needs to be sent fully
      */
-    open fun isDirty(): Boolean {
-        return this.position != shadow.position ||
-                this.rotation != shadow.rotation ||
-                this.renderInformation != shadow.renderInformation
+    val isNew: Boolean
+        get() = dirtyFlags and DIRTY_NEW != 0
+
+    /**
+     * marks fields as changed; adds the entity to the [dirtyList] if it wasn't dirty before. Subclasses should call
+     * this from the setters of fields that they send in [serializeInc], using their own bits (starting at
+     * [DIRTY_FIRST_CUSTOM_BIT])
+     * @param flags the bits of the fields
+     */
+    protected fun markDirty(flags: Int) {
+        val old = dirtyFlags
+        dirtyFlags = old or flags
+        if (old == 0) dirtyList?.add(this)
+    }
+
+    internal fun markRenderInformationDirty() {
+        markDirty(DIRTY_RENDER_INFORMATION)
+    }
+
+    /**
+     * clears the [dirtyFlags] and remembers the values that were sent; called once the update was sent to all clients
+     */
+    internal fun clearDirty() {
+        val dirtyFlags = dirtyFlags
+        if (dirtyFlags and (DIRTY_NEW or DIRTY_POSITION) != 0) {
+            sentPositionX = position.x
+            sentPositionY = position.y
+        }
+        if (dirtyFlags and (DIRTY_NEW or DIRTY_ROTATION) != 0) sentRotation = rotation
+        this.dirtyFlags = 0
+    }
+
+    /**
+     * called after the collisions of a step were resolved, if the entity started touching another entity in this step
+     * @param contact the contact; must not be stored, because it is reused (see [Contact])
+     */
+    open fun onContactBegin(contact: Contact) { }
+
+    /**
+     * called after the collisions of a step were resolved, for every entity the entity was already touching in the
+     * last step and is still touching
+     * @param contact the contact; must not be stored, because it is reused (see [Contact])
+     */
+    open fun onContactPersist(contact: Contact) { }
+
+    /**
+     * called after the collisions of a step were resolved, if the entity stopped touching another entity (or the
+     * other entity was removed)
+     * @param contact the contact; the collision-information is from the last step the entities were touching
+     */
+    open fun onContactEnd(contact: Contact) { }
+
+    internal fun beginContact(contact: Contact) {
+        contactList.add(contact.other(this))
+        onContactBegin(contact)
+        for (behavior in behaviors.snapshot) behavior.onContactBegin(this, contact)
+    }
+
+    internal fun persistContact(contact: Contact) {
+        onContactPersist(contact)
+        for (behavior in behaviors.snapshot) behavior.onContactPersist(this, contact)
+    }
+
+    internal fun endContact(contact: Contact) {
+        contactList.remove(contact.other(this))
+        onContactEnd(contact)
+        for (behavior in behaviors.snapshot) behavior.onContactEnd(this, contact)
     }
 
     /**
@@ -288,7 +552,35 @@ abstract class Entity(position: Vector2D) {
      */
     open fun initialize() {
         isMarkedForRemoval = false
-        shadow.isNew = true
+        markDirty(DIRTY_NEW)
+    }
+
+    /**
+     * the pool the entity is returned to after it was removed from a game; set by [EntityPool.obtain]
+     */
+    internal var pool: EntityPool<*>? = null
+
+    /**
+     * resets the state of the entity, so it can be reused by an [EntityPool] instead of creating a new entity. Resets
+     * the velocities, rotation, sleep-state, contacts and removal-callbacks; the configuration (mass, friction,
+     * collisionMask, behaviors, renderInformation, ...) is kept, because entities in a pool share it. When overriding,
+     * call `super.reset()`
+     */
+    open fun reset() {
+        velocity = Vector2D()
+        angularVelocity = 0.0
+        rotation = 0.0
+        isSleeping = false
+        sleepTicks = 0
+        sleepCheckTick = -1
+        isMarkedForRemoval = false
+        player = null
+        contactList.clear()
+        onRemovalCallbacks.clear()
+        dirtyList = null
+        dirtyFlags = 0
+        id = NO_ID
+        idStrategy = null
     }
 
     /**
@@ -310,13 +602,40 @@ abstract class Entity(position: Vector2D) {
     }
 
     @PublishedApi
-    internal var `access$behaviors`: MutableList<EntityBehavior>
+    internal val `access$behaviors`: BehaviorStore
         get() = behaviors
-        set(value) {
-            behaviors = value
-        }
 
     companion object {
         const val DEFAULT_COLLMASK_BIT: Long  = 0b01000000_00000000_00000000_00000000_00000000_00000000_00000000_00000000
+
+        /**
+         * a collisionMask containing every collision layer
+         */
+        const val ALL_COLLMASK_BITS: Long = -1L
+
+        /**
+         * the [handle] of entities that aren't part of a game
+         */
+        const val NO_HANDLE: Int = -1
+
+        /**
+         * the [id] of entities that were never added to a game
+         */
+        const val NO_ID: Long = -1L
+
+        /**
+         * the bits of [dirtyFlags]
+         */
+        const val DIRTY_NEW: Int = 1
+        const val DIRTY_POSITION: Int = 1 shl 1
+        const val DIRTY_ROTATION: Int = 1 shl 2
+        const val DIRTY_RENDER_INFORMATION: Int = 1 shl 3
+
+        /**
+         * the first bit of [dirtyFlags] that can be used by subclasses
+         */
+        const val DIRTY_FIRST_CUSTOM_BIT: Int = 1 shl 8
+
+        private val physicsIdCounter: AtomicInteger = AtomicInteger()
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package game.entities
 
+import game.physics.Contact
 import utils.Vector2D
 import kotlin.math.abs
 
@@ -8,21 +9,44 @@ import kotlin.math.abs
  */
 abstract class EntityBehavior {
 
+    /**
+     * true while the behavior is updated by a [BehaviorSystem] instead of its entity
+     */
+    internal var isBatched: Boolean = false
+
     /**
      * called every step; should update the entity accordingly
      * @param ent the entity to update
      */
     abstract fun update(ent: Entity)
+
+    /**
+     * called when the entity started touching another entity; see [Entity.onContactBegin]
+     * @param ent the entity the behavior belongs to
+     */
+    open fun onContactBegin(ent: Entity, contact: Contact) { }
+
+    /**
+     * called for every entity the entity is still touching; see [Entity.onContactPersist]
+     * @param ent the entity the behavior belongs to
+     */
+    open fun onContactPersist(ent: Entity, contact: Contact) { }
+
+    /**
+     * called when the entity stopped touching another entity; see [Entity.onContactEnd]
+     * @param ent the entity the behavior belongs to
+     */
+    open fun onContactEnd(ent: Entity, contact: Contact) { }
 }
 
 /**
- * applies gravity to an entity
+ * applies gravity to an entity; see [GravitySystem] for applying the gravity of many entities at once
  * @param gravity the strength of the gravity that is applied to the entity
  */
 class GravityBehavior(var gravity: Double) : EntityBehavior() {
 
     override fun update(ent: Entity) {
-        ent.applyForce(Vector2D(0.0, -gravity * ent.mass))
+        ent.applyForce(Vector2D(0.0, -gravity * ent.mass), wake = false)
     }
 
 
@@ -35,8 +59,8 @@ class GravityBehavior(var gravity: Double) : EntityBehavior() {
  * @param linearFriction the friction for the velocity of the entity
  */
 class FrictionBehaviour(
-    private val angularFriction: Double,
-    private val linearFriction: Double
+    val angularFriction: Double,
+    val linearFriction: Double
     ) : EntityBehavior() {
 
     override fun update(ent: Entity) {
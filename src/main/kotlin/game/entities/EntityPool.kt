@@ -0,0 +1,56 @@
+package game.entities
+
+/**
+ * keeps removed entities of one kind (an archetype), so short-lived entities like bullets and particles can be reused
+ * instead of being created for every spawn. Entities obtained from the pool are returned to it automatically one tick
+ * after they were removed from the game (after the removal was sent to the clients) and are [Entity.reset] then.
+ *
+ * Use a factory that copies a prototype (see the prototype-constructor of [PolygonEntity]), so new entities share the
+ * shape-data of the prototype instead of recalculating it.
+ *
+ * _Note: references to a removed entity must not be kept, because it is reused. The pool is not thread-safe_
+ * @param maxSize the maximum amount of entities kept in the pool; further removed entities are left to the gc
+ * @param factory creates a new entity when the pool is empty
+ */
+class EntityPool<T : Entity>(private val maxSize: Int = 256, private val factory: () -> T) {
+
+    private val free: ArrayList<T> = ArrayList()
+
+    /**
+     * the amount of entities that are currently in the pool
+     */
+    val size: Int
+        get() = free.size
+
+    /**
+     * @return a reset entity from the pool, or a new one if the pool is empty. The entity still needs to be positioned
+     * and added to a game
+     */
+    fun obtain(): T {
+        val ent = if (free.isEmpty()) factory() else free.removeAt(free.size - 1)
+        ent.pool = this
+        return ent
+    }
+
+    /**
+     * creates entities until the pool contains [count] entities, so the first spawns don't need to create them
+     */
+    fun prefill(count: Int) {
+        val target = minOf(count, maxSize)
+        while (free.size < target) free.add(factory())
+    }
+
+    /**
+     * resets the entity and puts it back into the pool; called by the game
+     */
+    internal fun release(ent: Entity) {
+        ent.reset()
+        if (free.size >= maxSize) {
+            ent.pool = null
+            return
+        }
+        @Suppress("UNCHECKED_CAST")
+        free.add(ent as T)
+    }
+
+}
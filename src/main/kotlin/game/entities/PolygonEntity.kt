@@ -4,36 +4,54 @@ import game.physics.AABB
 import utils.Utils
 import utils.Vector2D
 import java.io.DataOutputStream
+import kotlin.math.cos
+import kotlin.math.sin
 
 /**
  * a (convex) PolygonEntity
  * @param position the position of the center of the entity
- * @param vertices the vertices that form a convex polygon (clockwise)
- * @param density the density of the material of the entity (sets mass indirectly in combination with area)
+ * @param shape the shape of the polygon; can be shared between entities (see [PolygonShape.of])
+ * @param density the density of the material of the entity (sets mass and inertia in combination with the shape)
  */
 open class PolygonEntity(
     position: Vector2D,
-    vertices: Array<Vector2D>,
+    val shape: PolygonShape,
     val density: Double
     ) : Entity(position) {
 
+    /**
+     * the bounding-box of the rotated polygon. Recalculated together with the other cached world-space values
+     */
     final override val aabb: AABB
+        get() {
+            updateTransformCache()
+            return bounds
+        }
+
+    private val bounds: AABB = AABB()
 
     override val identifier: Int = Int.MAX_VALUE
 
     /**
-     * a PolygonEntity in the shape of a rectangle
+     * a (convex) PolygonEntity
+     * @param position the position of the center of the entity
+     * @param vertices the vertices that form a convex polygon (clockwise); the shape is not shared with other
+     * entities, pass a shape from [PolygonShape.of] for polygons that are used many times
+     * @param density the density of the material of the entity (sets mass indirectly in combination with area)
+     */
+    constructor(position: Vector2D, vertices: Array<Vector2D>, density: Double) :
+            this(position, PolygonShape.create(vertices), density)
+
+    /**
+     * a PolygonEntity in the shape of a rectangle; the shape is not shared with other entities, use the
+     * prototype-constructor or a shape from [PolygonShape.of] for rectangles that are used many times
      * @param position the position of the center of the entity
      * @param width the width of the rectangle
      * @param height the height of the rectangle
      * @param density the density of the material of the entity (sets mass indirectly in combination with area)
      */
-    constructor(position: Vector2D, width: Double, height: Double, density: Double) : this(position, arrayOf(
-        Vector2D(0.0, 0.0),
-        Vector2D(0.0, height),
-        Vector2D(width, height),
-        Vector2D(width, 0.0)
-    ), density)
+    constructor(position: Vector2D, width: Double, height: Double, density: Double) :
+            this(position, PolygonShape.rectangle(width, height), density)
 
     /**
      * constructs a PolygonEntity using the absolute vertices of the polygon
@@ -42,24 +60,36 @@ open class PolygonEntity(
      */
     constructor(absVerts: Array<Vector2D>, density: Double) : this(Utils.getPolygonCentroid(absVerts), absVerts, density)
 
+    /**
+     * constructs a PolygonEntity with the same shape and density as the prototype. Doesn't need to look up the
+     * shape, so this is the cheapest constructor; used for spawning many entities of the same kind (see [EntityPool])
+     * @param prototype the entity whose shape is copied; only its shape is copied, not its state or configuration
+     * @param position the position of the center of the entity
+     */
+    constructor(prototype: PolygonEntity, position: Vector2D) : this(position, prototype.shape, prototype.density)
+
     /**
      * the relative vertices of the polygon. The origin of the coordinate system is always the center of the polygon
      */
     val verticesRelative: Array<Vector2D>
+        get() = shape.verticesRelative
 
     /**
      * the absolute vertices of the polygon (the vertices in the game world)
      *
-     * _Note: these are recalculated every time the getter is called, so instead of calling it multiple times, it is
-     * better to cache the result in a local variable._
-     *
-     * TODO: cache vertices in getter
+     * _Note: these are cached and only recalculated when the position or the rotation changed since the last access.
+     * The returned array is reused, so it must not be modified._
      */
     val verticesAbsolute: Array<Vector2D>
         get() {
-            return Array(verticesRelative.size) {
-                Utils.rotatePointAroundPoint(verticesRelative[it] + position, position, rotation)
+            updateTransformCache()
+            if (!isVerticesAbsoluteValid) {
+                for (i in cachedVerticesAbsolute.indices) {
+                    cachedVerticesAbsolute[i] = Vector2D(worldVerticesX[i], worldVerticesY[i])
+                }
+                isVerticesAbsoluteValid = true
             }
+            return cachedVerticesAbsolute
         }
 
     /**
@@ -69,35 +99,128 @@ open class PolygonEntity(
      */
     val edges: Array<Vector2D>
         get() {
-            val verts = this.verticesAbsolute
-            return Array(verts.size) {
-                if (it == 0) { verts[verts.size - 1] -  verts[0] }
-                else { verts[it - 1] - verts[it] }
+            updateTransformCache()
+            if (!isEdgesValid) {
+                val n = cachedEdges.size
+                for (i in 0 until n) {
+                    val prev = if (i == 0) n - 1 else i - 1
+                    cachedEdges[i] = Vector2D(
+                        worldVerticesX[prev] - worldVerticesX[i],
+                        worldVerticesY[prev] - worldVerticesY[i]
+                    )
+                }
+                isEdgesValid = true
             }
+            return cachedEdges
         }
 
     /**
-     * the edge-normals of the polygon. (The Unit vectors with perpendicular directions to the edges)
+     * the edge-normals of the polygon. (The Unit vectors with perpendicular directions to the edges, pointing outwards)
      *
      * _Note: like [verticesAbsolute]_
      */
     val normals: Array<Vector2D>
         get() {
-            val edges = this.edges
-            return Array(edges.size) { edges[it].normal.unit }
+            updateTransformCache()
+            if (!isNormalsValid) {
+                for (i in cachedNormals.indices) cachedNormals[i] = Vector2D(worldNormalsX[i], worldNormalsY[i])
+                isNormalsValid = true
+            }
+            return cachedNormals
         }
 
+    /**
+     * the x-coordinates of the vertices in the game world; only up-to-date after calling [updateTransformCache]
+     */
+    internal val worldVerticesX: DoubleArray
+
+    /**
+     * the y-coordinates of the vertices in the game world; only up-to-date after calling [updateTransformCache]
+     */
+    internal val worldVerticesY: DoubleArray
+
+    /**
+     * the x-coordinates of the normals in the game world; only up-to-date after calling [updateTransformCache]
+     */
+    internal val worldNormalsX: DoubleArray
+
+    /**
+     * the y-coordinates of the normals in the game world; only up-to-date after calling [updateTransformCache]
+     */
+    internal val worldNormalsY: DoubleArray
+
+    /**
+     * the position for which the transform-cache was last calculated. [Vector2D] is immutable, so a changed position
+     * always means a different instance
+     */
+    private var cachedPosition: Vector2D? = null
+
+    /**
+     * the rotation for which the transform-cache was last calculated
+     */
+    private var cachedRotation: Double = Double.NaN
+
+    private val cachedVerticesAbsolute: Array<Vector2D>
+    private val cachedEdges: Array<Vector2D>
+    private val cachedNormals: Array<Vector2D>
+
+    private var isVerticesAbsoluteValid: Boolean = false
+    private var isEdgesValid: Boolean = false
+    private var isNormalsValid: Boolean = false
+
     init {
-        verticesRelative = Utils.getShapeWithCentroidZero(vertices)
-        aabb = getAABB(verticesRelative)
-        val result = Utils.calculateMassAndInertia(vertices, density)
-        this.mass = result.first
-        this.inertia = result.second
+        val verticesRelative = shape.verticesRelative
+        val n = verticesRelative.size
+        worldVerticesX = DoubleArray(n)
+        worldVerticesY = DoubleArray(n)
+        worldNormalsX = DoubleArray(n)
+        worldNormalsY = DoubleArray(n)
+        cachedVerticesAbsolute = Array(n) { verticesRelative[it] }
+        cachedEdges = Array(n) { verticesRelative[it] }
+        cachedNormals = Array(n) { verticesRelative[it] }
+        this.mass = shape.area * density
+        this.inertia = shape.unitInertia * density
+    }
+
+    /**
+     * recalculates the world-space vertices, normals and the [aabb] if the position or the rotation changed since the last call
+     */
+    internal fun updateTransformCache() {
+        val position = this.position
+        val rotation = this.rotation
+        if (position === cachedPosition && rotation == cachedRotation) return
+        val verticesRelative = shape.verticesRelative
+        val localNormalsX = shape.localNormalsX
+        val localNormalsY = shape.localNormalsY
+        val sin = sin(rotation)
+        val cos = cos(rotation)
+        var minX = Double.MAX_VALUE
+        var minY = Double.MAX_VALUE
+        var maxX = -Double.MAX_VALUE
+        var maxY = -Double.MAX_VALUE
+        for (i in verticesRelative.indices) {
+            val vert = verticesRelative[i]
+            val x = position.x + vert.x * cos + vert.y * sin
+            val y = position.y + vert.y * cos - vert.x * sin
+            worldVerticesX[i] = x
+            worldVerticesY[i] = y
+            worldNormalsX[i] = localNormalsX[i] * cos + localNormalsY[i] * sin
+            worldNormalsY[i] = localNormalsY[i] * cos - localNormalsX[i] * sin
+            if (x < minX) minX = x
+            if (x > maxX) maxX = x
+            if (y < minY) minY = y
+            if (y > maxY) maxY = y
+        }
+        bounds.set(minX, minY, maxX, maxY)
+        cachedPosition = position
+        cachedRotation = rotation
+        isVerticesAbsoluteValid = false
+        isEdgesValid = false
+        isNormalsValid = false
     }
 
     override fun serialize(output: DataOutputStream) {
-        output.writeLong(uuid.mostSignificantBits)
-        output.writeLong(uuid.leastSignificantBits)
+        writeId(output)
         output.writeBoolean(output === player?.clientConnection?.output) //TODO: do better
         output.writeInt(verticesRelative.size)
         for (vert in verticesRelative) vert.serialize(output)
@@ -107,10 +230,4 @@ open class PolygonEntity(
         renderInformation.serialize(output)
     }
 
-    private fun getAABB(verts: Array<Vector2D>): AABB {
-        var max = Vector2D()
-        for (vert in verts) if (vert.mag > max.mag) max = vert
-        return AABB(max.mag * 2, max.mag * 2)
-    }
-
-}
\ No newline at end of file
+}
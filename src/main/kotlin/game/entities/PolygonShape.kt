@@ -0,0 +1,132 @@
+package game.entities
+
+import utils.Utils
+import utils.Vector2D
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * the immutable shape of a convex polygon, which can be shared by many [PolygonEntity]s. Holds the vertices relative
+ * to the centroid, the local normals, the area and the inertia for a density of 1, so entities don't need to
+ * recalculate them; the mass and inertia of an entity are these values scaled by its density.
+ *
+ * Shapes created with [of] are interned, so thousands of entities using the same box only store its data once.
+ * Interned shapes are kept for the lifetime of the server, so one-off shapes (like generated terrain or debris) should
+ * be created with [create] or [rectangle], which the constructors of [PolygonEntity] use.
+ *
+ * _Note: the arrays must not be modified_
+ */
+class PolygonShape private constructor(vertices: Array<Vector2D>) {
+
+    /**
+     * the vertices relative to the centroid (clockwise)
+     */
+    val verticesRelative: Array<Vector2D> = Utils.getShapeWithCentroidZero(vertices)
+
+    /**
+     * a small id that is unique for every shape; can be used to send the shape to a client once and refer to it by
+     * its id afterwards
+     */
+    val id: Int = idCounter.getAndIncrement()
+
+    /**
+     * the x-coordinates of the outward-facing unit normals in local space (rotation = 0). Normal i belongs to the edge
+     * from vertex i - 1 to vertex i
+     */
+    internal val localNormalsX: DoubleArray = DoubleArray(verticesRelative.size)
+
+    /**
+     * the y-coordinates of the normals in local space; see [localNormalsX]
+     */
+    internal val localNormalsY: DoubleArray = DoubleArray(verticesRelative.size)
+
+    /**
+     * the area of the polygon
+     */
+    val area: Double
+
+    /**
+     * the inertia for a density of 1. Like before shapes existed, it is calculated around the origin of the vertices
+     * the shape was created from, not around the centroid
+     */
+    val unitInertia: Double
+
+    val vertexCount: Int
+        get() = verticesRelative.size
+
+    init {
+        val n = verticesRelative.size
+        for (i in 0 until n) {
+            val cur = verticesRelative[i]
+            val prev = verticesRelative[if (i == 0) n - 1 else i - 1]
+            val normal = (prev - cur).normal.unit
+            // the vertices are centered around the origin, so an outward facing normal points in the same direction
+            // as the middle of its edge
+            val flip = normal.x * (cur.x + prev.x) + normal.y * (cur.y + prev.y) < 0.0
+            localNormalsX[i] = if (flip) -normal.x else normal.x
+            localNormalsY[i] = if (flip) -normal.y else normal.y
+        }
+        val result = Utils.calculateMassAndInertia(vertices, 1.0)
+        area = result.first
+        unitInertia = result.second
+    }
+
+    /**
+     * the key used for interning; the relative vertices rounded to [KEY_PRECISION], so the same polygon at different
+     * positions maps to the same shape despite rounding-errors
+     */
+    private class Key(vertices: Array<Vector2D>) {
+
+        private val coordinates: LongArray = LongArray(vertices.size * 2) {
+            val vert = vertices[it / 2]
+            Math.round((if (it % 2 == 0) vert.x else vert.y) * KEY_PRECISION)
+        }
+
+        private val hash: Int = coordinates.contentHashCode()
+
+        override fun hashCode(): Int = hash
+
+        override fun equals(other: Any?): Boolean = other is Key && coordinates.contentEquals(other.coordinates)
+
+    }
+
+    companion object {
+
+        private const val KEY_PRECISION: Double = 1e6
+
+        private val idCounter: AtomicInteger = AtomicInteger()
+
+        private val shapes: ConcurrentHashMap<Key, PolygonShape> = ConcurrentHashMap()
+
+        /**
+         * @param vertices the vertices of a convex polygon (clockwise); can be absolute or relative, only their
+         * positions relative to the centroid matter
+         * @return the shape with the vertices; creates it if no shape with the same vertices exists yet. Shapes are
+         * never removed, so this should not be used for shapes that are only used once (like randomly generated
+         * debris), use [create] for those. The [unitInertia] of an interned shape is the one of the vertices it was
+         * first created from
+         */
+        fun of(vertices: Array<Vector2D>): PolygonShape {
+            val relative = Utils.getShapeWithCentroidZero(vertices)
+            return shapes.computeIfAbsent(Key(relative)) { PolygonShape(vertices) }
+        }
+
+        /**
+         * @return a new shape that isn't interned
+         */
+        fun create(vertices: Array<Vector2D>): PolygonShape = PolygonShape(vertices)
+
+        /**
+         * @return a new shape of a rectangle with the size that isn't interned; used by the rectangle-constructor of
+         * [PolygonEntity]. Pass the vertices to [of] for rectangles that are used many times
+         */
+        fun rectangle(width: Double, height: Double): PolygonShape = create(arrayOf(
+            Vector2D(0.0, 0.0),
+            Vector2D(0.0, height),
+            Vector2D(width, height),
+            Vector2D(width, 0.0)
+        ))
+
+    }
+
+}
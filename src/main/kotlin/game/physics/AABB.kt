@@ -2,32 +2,118 @@ package game.physics
 
 import utils.Vector2D
 import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
 
 
 /**
- * represents a **A**xis **A**ligned **B**ounding **B**ox
+ * represents a **A**xis **A**ligned **B**ounding **B**ox in world-space
  */
-class AABB(val width: Double, val height: Double) {
+class AABB(minX: Double, minY: Double, maxX: Double, maxY: Double) {
+
+    constructor() : this(0.0, 0.0, 0.0, 0.0)
+
+    var minX: Double = minX
+        private set
+
+    var minY: Double = minY
+        private set
+
+    var maxX: Double = maxX
+        private set
+
+    var maxY: Double = maxY
+        private set
+
+    val width: Double
+        get() = maxX - minX
+
+    val height: Double
+        get() = maxY - minY
+
+    /**
+     * the vertices returned by [getAbsoluteVertices]; null if the bounds changed since they were last created
+     */
+    private var cachedVertices: Array<Vector2D>? = null
+
+    /**
+     * updates the bounds of the aabb
+     */
+    fun set(minX: Double, minY: Double, maxX: Double, maxY: Double) {
+        if (minX == this.minX && minY == this.minY && maxX == this.maxX && maxY == this.maxY) return
+        this.minX = minX
+        this.minY = minY
+        this.maxX = maxX
+        this.maxY = maxY
+        cachedVertices = null
+    }
 
     /**
-     * @param position the position of the aabb
-     * @return the absolute vertices of the aabb given the position
+     * @return the vertices of the aabb (clockwise, starting at the bottom-left corner). The array is cached until the
+     * bounds change, so it must not be modified
      */
-    fun getAbsoluteVertices(position: Vector2D): Array<Vector2D> {
-        return arrayOf(
-            Vector2D(0.0, 0.0) + position,
-            Vector2D(0.0, height) + position,
-            Vector2D(width, height) + position,
-            Vector2D(width, 0.0) + position
+    fun getAbsoluteVertices(): Array<Vector2D> {
+        cachedVertices?.let { return it }
+        val vertices = arrayOf(
+            Vector2D(minX, minY),
+            Vector2D(minX, maxY),
+            Vector2D(maxX, maxY),
+            Vector2D(maxX, minY)
         )
+        cachedVertices = vertices
+        return vertices
     }
 
     /**
      * @return true if the aabbs intersect
      */
-    fun intersects(other: AABB, thisPos: Vector2D, otherPos: Vector2D): Boolean {
-        return (abs(thisPos.x - otherPos.x) * 2 < (width + other.width)) &&
-                (abs(thisPos.y - otherPos.y) * 2 < (height + other.height))
+    fun intersects(other: AABB): Boolean {
+        return minX < other.maxX && other.minX < maxX && minY < other.maxY && other.minY < maxY
+    }
+
+    /**
+     * @return true if the aabb intersects the area
+     */
+    fun intersects(minX: Double, minY: Double, maxX: Double, maxY: Double): Boolean {
+        return this.minX < maxX && minX < this.maxX && this.minY < maxY && minY < this.maxY
+    }
+
+    /**
+     * @return true if the point is inside the aabb
+     */
+    fun contains(x: Double, y: Double): Boolean {
+        return x in minX..maxX && y in minY..maxY
+    }
+
+    /**
+     * @return true if the ray origin + direction * t hits the aabb for some 0 <= t <= maxFraction
+     */
+    fun intersectsRay(originX: Double, originY: Double, directionX: Double, directionY: Double, maxFraction: Double): Boolean {
+        var tMin = 0.0
+        var tMax = maxFraction
+        if (abs(directionX) < EPSILON) {
+            if (originX < minX || originX > maxX) return false
+        } else {
+            val t1 = (minX - originX) / directionX
+            val t2 = (maxX - originX) / directionX
+            tMin = max(tMin, min(t1, t2))
+            tMax = min(tMax, max(t1, t2))
+            if (tMin > tMax) return false
+        }
+        if (abs(directionY) < EPSILON) {
+            if (originY < minY || originY > maxY) return false
+        } else {
+            val t1 = (minY - originY) / directionY
+            val t2 = (maxY - originY) / directionY
+            tMin = max(tMin, min(t1, t2))
+            tMax = min(tMax, max(t1, t2))
+            if (tMin > tMax) return false
+        }
+        return true
+    }
+
+    private companion object {
+        const val EPSILON: Double = 1e-12
     }
 
-}
\ No newline at end of file
+}
@@ -13,6 +13,64 @@ interface BroadCollisionChecker {
      * @return a list of entity-pairs that could be colliding
      */
     fun getCollisionCandidates(entities: List<Entity>): List<Pair<Entity, Entity>>
+
+    /**
+     * calls the callback for every collidable entity whose aabb intersects the area. By default all entities are
+     * checked, implementations can use their data structures instead; they may then only find entities that were
+     * already known at the last call to [getCollisionCandidates]
+     * @param entities the list containing all entities
+     * @param callback is called with the entity; returning false stops the query
+     */
+    fun queryArea(
+        entities: List<Entity>,
+        minX: Double, minY: Double, maxX: Double, maxY: Double,
+        callback: (Entity) -> Boolean
+    ) {
+        for (ent in entities) {
+            if (!ent.isCollidable || !ent.aabb.intersects(minX, minY, maxX, maxY)) continue
+            if (!callback(ent)) return
+        }
+    }
+
+    /**
+     * casts a ray and calls the callback for every collidable entity whose aabb is hit by the ray. The ray is defined
+     * as origin + direction * t for 0 <= t <= maxFraction. By default all entities are checked; like [queryArea],
+     * implementations can use their data structures instead
+     * @param entities the list containing all entities
+     * @param callback is called with the entity and the current maxFraction; it returns the new maxFraction (for
+     * example the fraction at which the ray hit the entity), so entities further away can be skipped. Returning 0
+     * stops the raycast
+     */
+    fun raycast(
+        entities: List<Entity>,
+        originX: Double, originY: Double, directionX: Double, directionY: Double, maxFraction: Double,
+        callback: (Entity, Double) -> Double
+    ) {
+        var curMaxFraction = maxFraction
+        for (ent in entities) {
+            if (!ent.isCollidable || !ent.aabb.intersectsRay(originX, originY, directionX, directionY, curMaxFraction)) {
+                continue
+            }
+            val fraction = callback(ent, curMaxFraction)
+            if (fraction <= 0.0) return
+            if (fraction < curMaxFraction) curMaxFraction = fraction
+        }
+    }
+
+    companion object {
+
+        /**
+         * checks the rules every broad-phase has to respect: both entities need to be collidable, they need to share
+         * at least one collision-layer and at least one of them needs to be awake and not static (see
+         * [Entity.isStatic] and [Entity.isSleeping])
+         * @return true if the entities could collide
+         */
+        fun canCollide(ent1: Entity, ent2: Entity): Boolean {
+            if (!ent1.isCollidable || !ent2.isCollidable) return false
+            if ((ent1.isStatic || ent1.isSleeping) && (ent2.isStatic || ent2.isSleeping)) return false
+            return ent1.collisionMask and ent2.collisionMask != 0L
+        }
+    }
 }
 
 /**
@@ -26,13 +84,9 @@ class MainBroadCollisionChecker : BroadCollisionChecker {
             if (!entities[i].isCollidable) continue
 
             for (j in (i + 1) until entities.size) {
-                if (!entities[j].isCollidable) continue
-                if (entities[i].mass == Double.POSITIVE_INFINITY && entities[j].mass == Double.POSITIVE_INFINITY) continue
-                if (entities[i].lockState == Entity.LockState.FULL_LOCK &&
-                    entities[j].lockState == Entity.LockState.FULL_LOCK) continue
-                if (entities[i].collisionMask and entities[j].collisionMask == 0L) continue
+                if (!BroadCollisionChecker.canCollide(entities[i], entities[j])) continue
 
-                if (entities[i].aabb.intersects(entities[j].aabb, entities[i].position, entities[j].position)) {
+                if (entities[i].aabb.intersects(entities[j].aabb)) {
                     candidates.add(Pair(entities[i], entities[j]))
                 }
             }
@@ -1,12 +1,12 @@
 package game.physics
 
+import game.entities.ChainEntity
 import game.entities.CircleEntity
 import game.entities.Entity
 import game.entities.PolygonEntity
-import utils.Utils
+import utils.LongHashMap
 import utils.Vector2D
-import kotlin.math.abs
-import kotlin.math.min
+import kotlin.math.sqrt
 
 /**
  * the collision-checker used for narrow-phase collision checking
@@ -18,12 +18,54 @@ interface CollisionChecker {
      * @return information about the collision; null if the entities are not colliding
      */
     fun checkCollision(ent1: Entity, ent2: Entity): CollisionInformation?
+
+    /**
+     * called by the game once all collisions of a tick were checked; can be used to clean up data that is kept
+     * between ticks
+     */
+    fun onStepFinished() { }
+
+    companion object {
+
+        /**
+         * @return a key that identifies the pair of entities, independent of their order
+         */
+        fun pairKey(ent1: Entity, ent2: Entity): Long {
+            val id1 = ent1.physicsId
+            val id2 = ent2.physicsId
+            val low = if (id1 < id2) id1 else id2
+            val high = if (id1 < id2) id2 else id1
+            return (high.toLong() shl 32) or (low.toLong() and 0xffffffffL)
+        }
+    }
 }
 
 /**
- * The Default-Implementation of the [CollisionChecker] using the SAT-Algorithm
+ * The Default-Implementation of the [CollisionChecker] using the SAT-Algorithm.
+ *
+ * Polygons are checked on the cached world-space vertices and normals of the [PolygonEntity] without allocating. The
+ * face that separated (or least penetrated) a pair is remembered and tested first in the next check, which usually
+ * rejects separated pairs after testing a single axis. Contacts are generated by clipping the incident face against
+ * the reference face, which gives up to two contact points. Circles are checked against the closest feature of the
+ * other shape. [ChainEntity]s are checked segment by segment, treating each segment as a polygon with two vertices
  */
-open class SatCollisionChecker : CollisionChecker { //TODO: circles are broken
+open class SatCollisionChecker : CollisionChecker {
+
+    /**
+     * the result of the last call to [collidePolygons]; reused, so checking doesn't allocate
+     */
+    protected val manifold: Manifold = Manifold()
+
+    /**
+     * the face that separated, or least penetrated, a pair of polygons in the last check; keyed by
+     * [CollisionChecker.pairKey]
+     */
+    private val cachedAxes: LongHashMap<CachedAxis> = LongHashMap()
+
+    /**
+     * incremented in [onStepFinished]; used to remove cached axes of pairs that weren't checked anymore
+     */
+    private var step: Int = 0
 
     override fun checkCollision(ent1: Entity, ent2: Entity): CollisionInformation? {
         return when {
@@ -31,130 +73,507 @@ open class SatCollisionChecker : CollisionChecker { //TODO: circles are broken
             ent1 is CircleEntity && ent2 is PolygonEntity -> checkCircleToPolyCollision(ent1, ent2)
             ent1 is PolygonEntity && ent2 is CircleEntity -> checkCircleToPolyCollision(ent2, ent1)
             ent1 is CircleEntity && ent2 is CircleEntity -> checkCircleToCircleCollision(ent1, ent2)
+            ent2 is ChainEntity && ent1 !is ChainEntity -> checkChainCollision(ent1, ent2)
+            ent1 is ChainEntity && ent2 !is ChainEntity -> checkChainCollision(ent2, ent1)
             else -> null
         }
     }
 
+    override fun onStepFinished() {
+        val step = this.step
+        cachedAxes.removeIf { _, cached -> cached.step != step }
+        this.step++
+    }
+
     protected fun checkPolyToPolyCollision(ent1: PolygonEntity, ent2: PolygonEntity): CollisionInformation? {
-        val verts1 = ent1.verticesAbsolute
-        val verts2 = ent2.verticesAbsolute
-        val normals = ent1.normals + ent2.normals
-        var minPenetrationDepth = Double.MAX_VALUE
-        var minPenetrationAxis = Vector2D()
-        for (normal in normals) {
-            val penetrationDepth = project(verts1, verts2, normal) ?: return null
-            if (penetrationDepth < minPenetrationDepth) {
-                minPenetrationDepth = penetrationDepth
-                minPenetrationAxis = normal
+        ent1.updateTransformCache()
+        ent2.updateTransformCache()
+        val key = CollisionChecker.pairKey(ent1, ent2)
+        var cached = cachedAxes[key]
+        if (cached == null) {
+            cached = CachedAxis()
+            cachedAxes[key] = cached
+        }
+        cached.step = step
+        val count1 = ent1.worldVerticesX.size
+        // the cached face is stored relative to the entity owning it, because the order of the pair can change
+        val cachedFace = when (cached.ownerId) {
+            ent1.physicsId -> cached.face
+            ent2.physicsId -> count1 + cached.face
+            else -> -1
+        }
+        val isColliding = collidePolygons(
+            ent1.worldVerticesX, ent1.worldVerticesY, ent1.worldNormalsX, ent1.worldNormalsY,
+            ent2.worldVerticesX, ent2.worldVerticesY, ent2.worldNormalsX, ent2.worldNormalsY,
+            cachedFace
+        )
+        val face = manifold.face
+        cached.ownerId = if (face < count1) ent1.physicsId else ent2.physicsId
+        cached.face = if (face < count1) face else face - count1
+        if (!isColliding) return null
+        return manifold.toCollisionInformation(ent1, ent2)
+    }
+
+    /**
+     * checks two convex polygons for collision using the separating axis theorem and stores the result in [manifold].
+     * Both polygons are given by the world-space vertices and the outward-facing normals, where normal i belongs to
+     * the face from vertex i - 1 to vertex i.
+     * @param cachedFace the face that should be tested first; faces of the second polygon start at the vertex-count of
+     * the first polygon. -1 if there is no cached face
+     * @return true if the polygons are colliding
+     */
+    protected fun collidePolygons(
+        xs1: DoubleArray, ys1: DoubleArray, nxs1: DoubleArray, nys1: DoubleArray,
+        xs2: DoubleArray, ys2: DoubleArray, nxs2: DoubleArray, nys2: DoubleArray,
+        cachedFace: Int
+    ): Boolean {
+        val count1 = xs1.size
+        val manifold = this.manifold
+        manifold.pointCount = 0
+
+        if (cachedFace in 0 until count1 + xs2.size) {
+            val separation = if (cachedFace < count1) {
+                faceSeparation(xs1, ys1, nxs1, nys1, cachedFace, xs2, ys2)
+            } else {
+                faceSeparation(xs2, ys2, nxs2, nys2, cachedFace - count1, xs1, ys1)
+            }
+            if (separation > 0.0) {
+                manifold.face = cachedFace
+                return false
+            }
+        }
+
+        val face1 = findMaxSeparation(xs1, ys1, nxs1, nys1, xs2, ys2)
+        val separation1 = maxSeparation
+        if (separation1 > 0.0) {
+            manifold.face = face1
+            return false
+        }
+        val face2 = findMaxSeparation(xs2, ys2, nxs2, nys2, xs1, ys1)
+        val separation2 = maxSeparation
+        if (separation2 > 0.0) {
+            manifold.face = count1 + face2
+            return false
+        }
+
+        // prefer the first polygon as reference, so the reference face doesn't flip between similar separations
+        val flip = separation2 > RELATIVE_TOLERANCE * separation1 + ABSOLUTE_TOLERANCE
+        if (flip) {
+            manifold.face = count1 + face2
+            clipFaces(xs2, ys2, nxs2, nys2, face2, xs1, ys1, nxs1, nys1)
+            // the normal of the second polygon already points towards the first one
+        } else {
+            manifold.face = face1
+            clipFaces(xs1, ys1, nxs1, nys1, face1, xs2, ys2, nxs2, nys2)
+            manifold.normalX = -manifold.normalX
+            manifold.normalY = -manifold.normalY
+        }
+        manifold.depth = -(if (flip) separation2 else separation1)
+        return true
+    }
+
+    /**
+     * the separation found by the last call to [findMaxSeparation]
+     */
+    private var maxSeparation: Double = 0.0
+
+    /**
+     * finds the face of the first polygon with the largest separation from the second polygon. Stops early if a
+     * separating face is found. The separation is stored in [maxSeparation]
+     * @return the index of the face
+     */
+    private fun findMaxSeparation(
+        xs1: DoubleArray, ys1: DoubleArray, nxs1: DoubleArray, nys1: DoubleArray,
+        xs2: DoubleArray, ys2: DoubleArray
+    ): Int {
+        var bestFace = 0
+        var bestSeparation = -Double.MAX_VALUE
+        for (i in xs1.indices) {
+            val separation = faceSeparation(xs1, ys1, nxs1, nys1, i, xs2, ys2)
+            if (separation > bestSeparation) {
+                bestSeparation = separation
+                bestFace = i
+                if (separation > 0.0) break
             }
         }
-        val dir = ent2.position - ent1.position
-        if (minPenetrationAxis dot dir > 0.0) minPenetrationAxis = -minPenetrationAxis
-        val intersectionPoints = getIntersectionPoints(verts1, verts2)
-            ?: return CollisionInformation(ent1, ent2, minPenetrationAxis.getWithMag(minPenetrationDepth), null)
-        return CollisionInformation(ent1, ent2, minPenetrationAxis.getWithMag(minPenetrationDepth),
-            Utils.findVertexAverage(intersectionPoints))
+        maxSeparation = bestSeparation
+        return bestFace
     }
 
-    protected fun checkCircleToPolyCollision(circle: CircleEntity, poly: PolygonEntity): CollisionInformation? {
-        val verts = poly.verticesAbsolute
-        val normals = poly.normals
-        var minDistance = Double.MAX_VALUE
-        var minDistanceVert = Vector2D()
-        for (vert in verts) {
-            val distance = (vert - circle.position).mag
-            if (distance < minDistance) {
-                minDistance = distance
-                minDistanceVert = vert
+    /**
+     * @return the distance of the deepest vertex of the second polygon from the face of the first polygon; negative
+     * if it is behind the face
+     */
+    private fun faceSeparation(
+        xs1: DoubleArray, ys1: DoubleArray, nxs1: DoubleArray, nys1: DoubleArray, face: Int,
+        xs2: DoubleArray, ys2: DoubleArray
+    ): Double {
+        val nx = nxs1[face]
+        val ny = nys1[face]
+        val px = xs1[face]
+        val py = ys1[face]
+        var min = Double.MAX_VALUE
+        for (j in xs2.indices) {
+            val distance = nx * (xs2[j] - px) + ny * (ys2[j] - py)
+            if (distance < min) min = distance
+        }
+        return min
+    }
+
+    /**
+     * finds the face of the incident polygon that is most anti-parallel to the reference face, clips it against the
+     * side planes of the reference face and keeps the points behind the reference face. Stores the normal of the
+     * reference face and the contact points (in the middle between the two polygons) in [manifold]
+     */
+    private fun clipFaces(
+        refXs: DoubleArray, refYs: DoubleArray, refNxs: DoubleArray, refNys: DoubleArray, refFace: Int,
+        incXs: DoubleArray, incYs: DoubleArray, incNxs: DoubleArray, incNys: DoubleArray
+    ) {
+        val manifold = this.manifold
+        val nx = refNxs[refFace]
+        val ny = refNys[refFace]
+        manifold.normalX = nx
+        manifold.normalY = ny
+
+        var incFace = 0
+        var minDot = Double.MAX_VALUE
+        for (j in incXs.indices) {
+            val dot = nx * incNxs[j] + ny * incNys[j]
+            if (dot < minDot) {
+                minDot = dot
+                incFace = j
             }
         }
-        val axes: MutableList<Vector2D> = mutableListOf(circle.position - minDistanceVert)
-        for (n in normals) axes.add(n)
-        var minPenetrationDepth = Double.MAX_VALUE
-        var minPenetrationAxis = Vector2D()
-        for (axis in axes) {
-            var min1 = Double.MAX_VALUE
-            var max1 = -Double.MAX_VALUE
-            for (vert in verts) {
-                val projection = vert dot axis
-                if (projection < min1) min1 = projection
-                if (projection > max1) max1 = projection
+        val incPrev = if (incFace == 0) incXs.size - 1 else incFace - 1
+        clipX1 = incXs[incPrev]
+        clipY1 = incYs[incPrev]
+        clipX2 = incXs[incFace]
+        clipY2 = incYs[incFace]
+
+        val refPrev = if (refFace == 0) refXs.size - 1 else refFace - 1
+        val r1x = refXs[refPrev]
+        val r1y = refYs[refPrev]
+        val r2x = refXs[refFace]
+        val r2y = refYs[refFace]
+        var tx = r2x - r1x
+        var ty = r2y - r1y
+        val length = sqrt(tx * tx + ty * ty)
+        if (length > 0.0) {
+            tx /= length
+            ty /= length
+        }
+        if (clipSegment(-tx, -ty, -(tx * r1x + ty * r1y)) && clipSegment(tx, ty, tx * r2x + ty * r2y)) {
+            val separation1 = nx * (clipX1 - r1x) + ny * (clipY1 - r1y)
+            val separation2 = nx * (clipX2 - r1x) + ny * (clipY2 - r1y)
+            if (separation1 <= 0.0) addContactPoint(clipX1, clipY1, nx, ny, separation1)
+            if (separation2 <= 0.0) addContactPoint(clipX2, clipY2, nx, ny, separation2)
+        }
+        if (manifold.pointCount != 0) return
+
+        // can happen if the polygons overlap deeply; fall back to the deepest vertex of the incident polygon
+        var deepest = 0
+        var minSeparation = Double.MAX_VALUE
+        for (j in incXs.indices) {
+            val separation = nx * (incXs[j] - r1x) + ny * (incYs[j] - r1y)
+            if (separation < minSeparation) {
+                minSeparation = separation
+                deepest = j
             }
-            val projection = circle.position dot axis
-            val min2 = projection - circle.radius
-            val max2 = projection + circle.radius
-            val overlaps = (min1 < max2 && min1 > min2) || (min2 < max1 && min2 > min1)
-            if (overlaps) {
-                val o1 = max1 - min2
-                val o2 = max2 - min1
-                val depth = min(o1, o2)
-                if (depth < minPenetrationDepth) {
-                    minPenetrationDepth = depth
-                    minPenetrationAxis = axis
-                }
-            } else return null
         }
-        val intersectionPoint = circle.position + minPenetrationAxis * circle.radius
-        return CollisionInformation(circle, poly, minPenetrationAxis * minPenetrationDepth, intersectionPoint)
+        addContactPoint(incXs[deepest], incYs[deepest], nx, ny, minSeparation)
     }
 
-    fun checkCircleToCircleCollision(ent1: CircleEntity, ent2: CircleEntity): CollisionInformation? {
-        if (abs((ent1.position - ent2.position).mag) > ent1.radius + ent2.radius) return null
-        val dir = ent1.position - ent2.position
-        val penetrationDepth = ent1.radius + ent2.radius - dir.mag
-        return CollisionInformation(ent1, ent2, dir * penetrationDepth, ent1.position + dir * ent1.radius)
+    /**
+     * adds a contact point to [manifold], placed in the middle between the point on the incident polygon and the
+     * reference face
+     */
+    private fun addContactPoint(x: Double, y: Double, nx: Double, ny: Double, separation: Double) {
+        manifold.addPoint(x - nx * separation * 0.5, y - ny * separation * 0.5, -separation)
     }
 
-    protected fun project(verts1: Array<Vector2D>, verts2: Array<Vector2D>,  axis: Vector2D): Double? {
-        var min1 = Double.MAX_VALUE
-        var max1 = -Double.MAX_VALUE
-        for (vert in verts1) {
-            val projection = vert dot axis
-            if (projection < min1) min1 = projection
-            if (projection > max1) max1 = projection
+    private var clipX1: Double = 0.0
+    private var clipY1: Double = 0.0
+    private var clipX2: Double = 0.0
+    private var clipY2: Double = 0.0
+
+    /**
+     * clips the segment from (clipX1, clipY1) to (clipX2, clipY2), so that only the part with
+     * normal dot point <= offset remains
+     * @return false if nothing of the segment remains
+     */
+    private fun clipSegment(nx: Double, ny: Double, offset: Double): Boolean {
+        val distance1 = nx * clipX1 + ny * clipY1 - offset
+        val distance2 = nx * clipX2 + ny * clipY2 - offset
+        if (distance1 > 0.0 && distance2 > 0.0) return false
+        if (distance1 > 0.0) {
+            val t = distance1 / (distance1 - distance2)
+            clipX1 += (clipX2 - clipX1) * t
+            clipY1 += (clipY2 - clipY1) * t
+        } else if (distance2 > 0.0) {
+            val t = distance2 / (distance2 - distance1)
+            clipX2 += (clipX1 - clipX2) * t
+            clipY2 += (clipY1 - clipY2) * t
         }
-        var min2 = Double.MAX_VALUE
-        var max2 = -Double.MAX_VALUE
-        for (vert in verts2) {
-            val projection = vert dot axis
-            if (projection < min2) min2 = projection
-            if (projection > max2) max2 = projection
+        return true
+    }
+
+    protected fun checkCircleToPolyCollision(circle: CircleEntity, poly: PolygonEntity): CollisionInformation? {
+        poly.updateTransformCache()
+        val position = circle.position
+        val isColliding = collideCircleAndPolygon(
+            position.x, position.y, circle.radius,
+            poly.worldVerticesX, poly.worldVerticesY, poly.worldNormalsX, poly.worldNormalsY
+        )
+        if (!isColliding) return null
+        return manifold.toCollisionInformation(circle, poly)
+    }
+
+    fun checkCircleToCircleCollision(ent1: CircleEntity, ent2: CircleEntity): CollisionInformation? {
+        val position1 = ent1.position
+        val position2 = ent2.position
+        val dx = position1.x - position2.x
+        val dy = position1.y - position2.y
+        val radiusSum = ent1.radius + ent2.radius
+        val distanceSquared = dx * dx + dy * dy
+        if (distanceSquared >= radiusSum * radiusSum) return null
+        val distance = sqrt(distanceSquared)
+        // circles at the same position can be separated in any direction
+        val nx = if (distance == 0.0) 0.0 else dx / distance
+        val ny = if (distance == 0.0) 1.0 else dy / distance
+        val depth = radiusSum - distance
+        val manifold = this.manifold
+        manifold.normalX = nx
+        manifold.normalY = ny
+        manifold.depth = depth
+        manifold.pointCount = 0
+        val offset = ent2.radius - depth * 0.5
+        manifold.addPoint(position2.x + nx * offset, position2.y + ny * offset, depth)
+        return manifold.toCollisionInformation(ent1, ent2)
+    }
+
+    /**
+     * checks a circle and a convex polygon for collision and stores the result in [manifold]; the normal points from
+     * the polygon to the circle. Finds the face closest to the center of the circle and, if the center is outside of
+     * the polygon, whether the center is in the region of the face or of one of its vertices.
+     * The polygon is given like in [collidePolygons]
+     * @return true if they are colliding
+     */
+    protected fun collideCircleAndPolygon(
+        cx: Double, cy: Double, radius: Double,
+        xs: DoubleArray, ys: DoubleArray, nxs: DoubleArray, nys: DoubleArray
+    ): Boolean {
+        val manifold = this.manifold
+        manifold.pointCount = 0
+
+        var face = 0
+        var separation = -Double.MAX_VALUE
+        for (i in xs.indices) {
+            val s = nxs[i] * (cx - xs[i]) + nys[i] * (cy - ys[i])
+            if (s > radius) {
+                manifold.face = i
+                return false
+            }
+            if (s > separation) {
+                separation = s
+                face = i
+            }
         }
-        val overlaps = (min1 < max2 && min1 > min2) || (min2 < max1 && min2 > min1)
-        if (overlaps) {
-            val o1 = max1 - min2
-            val o2 = max2 - min1
-            return min(o1, o2)
+        manifold.face = face
+
+        val prev = if (face == 0) xs.size - 1 else face - 1
+        val v1x = xs[prev]
+        val v1y = ys[prev]
+        val v2x = xs[face]
+        val v2y = ys[face]
+        var nx = nxs[face]
+        var ny = nys[face]
+        var depth = radius - separation
+
+        // the center is outside of the polygon; check whether it is closest to a vertex instead of the face
+        if (separation > 0.0) {
+            val u1 = (cx - v1x) * (v2x - v1x) + (cy - v1y) * (v2y - v1y)
+            val u2 = (cx - v2x) * (v1x - v2x) + (cy - v2y) * (v1y - v2y)
+            if (u1 <= 0.0 || u2 <= 0.0) {
+                val vx = if (u1 <= 0.0) v1x else v2x
+                val vy = if (u1 <= 0.0) v1y else v2y
+                val dx = cx - vx
+                val dy = cy - vy
+                val distanceSquared = dx * dx + dy * dy
+                if (distanceSquared >= radius * radius) return false
+                val distance = sqrt(distanceSquared)
+                if (distance > 0.0) {
+                    nx = dx / distance
+                    ny = dy / distance
+                }
+                depth = radius - distance
+            }
         }
-        return null
+
+        manifold.normalX = nx
+        manifold.normalY = ny
+        manifold.depth = depth
+        val offset = radius - depth * 0.5
+        manifold.addPoint(cx - nx * offset, cy - ny * offset, depth)
+        return true
+    }
+
+    /**
+     * the vertices and normals of the segment that is currently checked in [checkChainCollision], as a polygon with
+     * two vertices
+     */
+    private val segmentXs: DoubleArray = DoubleArray(2)
+    private val segmentYs: DoubleArray = DoubleArray(2)
+    private val segmentNormalsX: DoubleArray = DoubleArray(2)
+    private val segmentNormalsY: DoubleArray = DoubleArray(2)
+
+    /**
+     * the deepest collision with a segment found so far in [checkChainCollision]
+     */
+    private val deepestManifold: Manifold = Manifold()
+
+    private var segmentEntity: Entity? = null
+    private var segmentChain: ChainEntity? = null
+
+    /**
+     * reused callback for querying the segments of a chain, so checking doesn't allocate
+     */
+    private val segmentCallback: DynamicAabbTree.QueryCallback<Int> = DynamicAabbTree.QueryCallback { segment ->
+        collideSegment(segment)
+        true
+    }
+
+    /**
+     * checks the entity against the segments of the chain that are close to it and keeps the deepest collision. A
+     * single manifold is enough for the solver, because the deepest segment is the one the entity is resting on;
+     * segments the entity only touches at their end are less deep, so they don't cause collisions with the corners
+     * between segments
+     */
+    protected fun checkChainCollision(ent: Entity, chain: ChainEntity): CollisionInformation? {
+        if (ent !is PolygonEntity && ent !is CircleEntity) return null
+        chain.updateTransformCache()
+        val aabb = ent.aabb
+        deepestManifold.pointCount = 0
+        deepestManifold.depth = -Double.MAX_VALUE
+        segmentEntity = ent
+        segmentChain = chain
+        chain.querySegments(aabb.minX, aabb.minY, aabb.maxX, aabb.maxY, segmentCallback)
+        segmentEntity = null
+        segmentChain = null
+        if (deepestManifold.pointCount == 0) return null
+        return deepestManifold.toCollisionInformation(ent, chain)
     }
 
-    protected fun getIntersectionPoints(verts1: Array<Vector2D>, verts2: Array<Vector2D>): Array<Vector2D>? {
-        val points = mutableListOf<Vector2D>()
-        for (i in verts1.indices) for (j in verts2.indices) {
-            val intersection = findLineIntersectionPoint(verts1[
-                    if (i + 1 == verts1.size) { 0 } else { i + 1 }
-                           ], verts1[i], verts2[
-                    if (j + 1 == verts2.size) { 0 } else { j + 1 }
-                           ], verts2[j])
-            if (intersection != null) points.add(intersection)
+    private fun collideSegment(segment: Int) {
+        val ent = segmentEntity!!
+        val chain = segmentChain!!
+        val end = chain.segmentEnd(segment)
+        segmentXs[0] = chain.worldVerticesX[segment]
+        segmentYs[0] = chain.worldVerticesY[segment]
+        segmentXs[1] = chain.worldVerticesX[end]
+        segmentYs[1] = chain.worldVerticesY[end]
+        // face 1 goes from the first to the second vertex, face 0 is the same face in the other direction
+        segmentNormalsX[1] = chain.segmentNormalsX[segment]
+        segmentNormalsY[1] = chain.segmentNormalsY[segment]
+        segmentNormalsX[0] = -segmentNormalsX[1]
+        segmentNormalsY[0] = -segmentNormalsY[1]
+        val isColliding = when (ent) {
+            is PolygonEntity -> collidePolygons(
+                ent.worldVerticesX, ent.worldVerticesY, ent.worldNormalsX, ent.worldNormalsY,
+                segmentXs, segmentYs, segmentNormalsX, segmentNormalsY,
+                -1
+            )
+            is CircleEntity -> collideCircleAndPolygon(
+                ent.position.x, ent.position.y, ent.radius,
+                segmentXs, segmentYs, segmentNormalsX, segmentNormalsY
+            )
+            else -> false
         }
-        return if (points.size == 0) { null } else { points.toTypedArray() }
+        if (isColliding && manifold.depth > deepestManifold.depth) deepestManifold.set(manifold)
     }
 
-    protected fun findLineIntersectionPoint(p: Vector2D, p2: Vector2D, q: Vector2D, q2: Vector2D): Vector2D? {
-        val r = p2 - p
-        val s = q2 - q
-        val t = ((q - p) cross s) / (r cross s)
-        val u = ((p - q) cross r) / (s cross r)
-        if (r cross s == 0.0 && (q - p) cross r == 0.0) {
-            if ((q - p) dot (r / (r dot r)) in 0.0..1.0) return null
-            return Utils.findVertexAverage(arrayOf(q, q2))
+    /**
+     * the face that separated, or least penetrated, a pair of polygons in the last check
+     */
+    private class CachedAxis {
+
+        /**
+         * the physicsId of the entity the face belongs to
+         */
+        var ownerId: Int = -1
+
+        var face: Int = -1
+
+        /**
+         * the step in which the pair was last checked
+         */
+        var step: Int = 0
+    }
+
+    /**
+     * the result of a narrow-phase check in primitive fields. [normalX] and [normalY] point from the second to the
+     * first polygon
+     */
+    protected class Manifold {
+
+        var normalX: Double = 0.0
+        var normalY: Double = 0.0
+        var depth: Double = 0.0
+
+        /**
+         * the reference face, or the separating face if the polygons are not colliding; see [collidePolygons]
+         */
+        var face: Int = -1
+
+        var pointCount: Int = 0
+        var point1X: Double = 0.0
+        var point1Y: Double = 0.0
+        var point1Depth: Double = 0.0
+        var point2X: Double = 0.0
+        var point2Y: Double = 0.0
+        var point2Depth: Double = 0.0
+
+        fun addPoint(x: Double, y: Double, depth: Double) {
+            if (pointCount == 0) {
+                point1X = x
+                point1Y = y
+                point1Depth = depth
+            } else {
+                point2X = x
+                point2Y = y
+                point2Depth = depth
+            }
+            pointCount++
+        }
+
+        fun set(other: Manifold) {
+            normalX = other.normalX
+            normalY = other.normalY
+            depth = other.depth
+            face = other.face
+            pointCount = other.pointCount
+            point1X = other.point1X
+            point1Y = other.point1Y
+            point1Depth = other.point1Depth
+            point2X = other.point2X
+            point2Y = other.point2Y
+            point2Depth = other.point2Depth
         }
-        if (r cross s != 0.0 && t in 0.0..1.0 && u in 0.0..1.0) return p + r * t
-        return null
+
+        fun toCollisionInformation(ent1: Entity, ent2: Entity): CollisionInformation = CollisionInformation(
+            ent1, ent2, normalX, normalY, depth,
+            pointCount, point1X, point1Y, point1Depth, point2X, point2Y, point2Depth
+        )
     }
 
+    private companion object {
+
+        /**
+         * the second polygon is only used as reference if its separation is larger by this factor (and
+         * [ABSOLUTE_TOLERANCE]), to keep the reference face from flipping between steps
+         */
+        const val RELATIVE_TOLERANCE: Double = 0.98
+        const val ABSOLUTE_TOLERANCE: Double = 0.001
+    }
 
 }
 
@@ -162,13 +581,64 @@ open class SatCollisionChecker : CollisionChecker { //TODO: circles are broken
  * stores information about a collision
  * @param ent1 the first entity
  * @param ent2 the second entity
- * @param mtv the minimum translation vector to separate the objects
- * @param colPoint the approximated point at which the collision happened; null if it can't be found (for example
- * if the entities are completely overlapping)
+ * @param normalX the x-coordinate of the unit normal of the collision; the normal points from ent2 to ent1
+ * @param normalY the y-coordinate of the normal
+ * @param depth how deep the entities are penetrating
+ * @param pointCount the amount of contact points (0 to 2); 0 if no contact point could be found (for example if the
+ * entities are completely overlapping)
+ * @param point1X the x-coordinate of the first contact point
+ * @param point1Y the y-coordinate of the first contact point
+ * @param point1Depth the penetration depth at the first contact point
+ * @param point2X the x-coordinate of the second contact point
+ * @param point2Y the y-coordinate of the second contact point
+ * @param point2Depth the penetration depth at the second contact point
  */
-data class CollisionInformation(
+class CollisionInformation(
     val ent1: Entity,
     val ent2: Entity,
-    val mtv: Vector2D,
+    val normalX: Double,
+    val normalY: Double,
+    val depth: Double,
+    val pointCount: Int,
+    val point1X: Double = 0.0,
+    val point1Y: Double = 0.0,
+    val point1Depth: Double = depth,
+    val point2X: Double = 0.0,
+    val point2Y: Double = 0.0,
+    val point2Depth: Double = depth
+) {
+
+    /**
+     * @param ent1 the first entity
+     * @param ent2 the second entity
+     * @param mtv the minimum translation vector to separate the objects
+     * @param colPoint the approximated point at which the collision happened; null if it can't be found
+     */
+    constructor(ent1: Entity, ent2: Entity, mtv: Vector2D, colPoint: Vector2D?) : this(
+        ent1, ent2,
+        if (mtv.mag == 0.0) 0.0 else mtv.x / mtv.mag,
+        if (mtv.mag == 0.0) 0.0 else mtv.y / mtv.mag,
+        mtv.mag,
+        if (colPoint == null) 0 else 1,
+        colPoint?.x ?: 0.0,
+        colPoint?.y ?: 0.0
+    )
+
+    /**
+     * the minimum translation vector to separate the objects
+     */
+    val mtv: Vector2D
+        get() = Vector2D(normalX * depth, normalY * depth)
+
+    /**
+     * the approximated point at which the collision happened (the average of the contact points); null if there are
+     * no contact points
+     */
     val colPoint: Vector2D?
-)
\ No newline at end of file
+        get() = when (pointCount) {
+            0 -> null
+            1 -> Vector2D(point1X, point1Y)
+            else -> Vector2D((point1X + point2X) * 0.5, (point1Y + point2Y) * 0.5)
+        }
+
+}
@@ -16,20 +16,42 @@ interface CollisionResolver {
      * @param information information about the collision
      */
     fun resolveCollision(information: CollisionInformation)
+
+    /**
+     * resolves all collisions that were found in a step. By default the collisions are resolved one after another
+     * @param collisions information about the collisions
+     */
+    fun resolveCollisions(collisions: List<CollisionInformation>) {
+        for (collision in collisions) resolveCollision(collision)
+    }
+
+    /**
+     * how often the entities are moved and collisions are resolved per tick; 3 by default, like before resolvers
+     * could choose it
+     */
+    val substepCount: Int
+        get() = 3
+
+    /**
+     * if true, the collisions of a substep are collected and passed to [resolveCollisions] before the entities are
+     * moved, so the velocities calculated by the resolver are used for moving. If false, the entities are moved first
+     * and every collision is passed to [resolveCollision] as soon as it is found
+     */
+    val resolvesBeforeStep: Boolean
+        get() = false
 }
 
 /**
- * the default-collisionResolver
+ * a collisionResolver that resolves every collision on its own, as soon as it is found. Needs multiple substeps to
+ * keep stacks of entities stable
+ * @param substepCount how often the entities are moved and collisions are resolved per tick
  */
-class MainCollisionResolver : CollisionResolver {
+class MainCollisionResolver(override val substepCount: Int = 3) : CollisionResolver {
 
     override fun resolveCollision(information: CollisionInformation) {
         val ent1 = information.ent1
         val ent2 = information.ent2
 
-        ent1.contactsAccessor.add(ent2)
-        ent2.contactsAccessor.add(ent1)
-
         if (ent1.skipCollisionResolution || ent2.skipCollisionResolution) return
 
         val mtv = information.mtv
@@ -50,12 +72,18 @@ class MainCollisionResolver : CollisionResolver {
 
         val contactVel = rv dot normal
 
-        if (ent1.mass != Double.POSITIVE_INFINITY && ent2.mass != Double.POSITIVE_INFINITY) {
+        // sleeping entities are treated like entities with infinite mass, so resting stacks aren't disturbed
+        val invMass1 = ent1.inverseMass
+        val invMass2 = ent2.inverseMass
+        val invInertia1 = ent1.inverseInertia
+        val invInertia2 = ent2.inverseInertia
+
+        if (invMass1 != 0.0 && invMass2 != 0.0) {
             ent1.position += mtv * 0.3
             ent2.position += mtv * -0.3
-        } else if (ent1.mass == Double.POSITIVE_INFINITY && ent2.mass != Double.POSITIVE_INFINITY) {
+        } else if (invMass1 == 0.0 && invMass2 != 0.0) {
             ent2.position += mtv * -0.6
-        } else {
+        } else if (invMass1 != 0.0) {
             ent1.position += mtv
 //            ent1.applyForce(mtv.normal * -10.0, ra)
         }
@@ -63,21 +91,18 @@ class MainCollisionResolver : CollisionResolver {
         if (contactVel > 0) return
         val raCrossN = ra cross normal
         val rbCrossN = rb cross normal
-        val invMassSum = ( 1 / ent1.mass) + (1 / ent2.mass) + raCrossN * raCrossN *
-                (1 / ent1.inertia) + rbCrossN * rbCrossN * (1 / ent2.inertia)
+        val invMassSum = invMass1 + invMass2 + raCrossN * raCrossN * invInertia1 + rbCrossN * rbCrossN * invInertia2
 
         var j = (-(1.0f + e) * contactVel)
         j /= invMassSum
 
         val impulse = normal * j
 
-        ent1.velocity += (-impulse * (1 / ent1.mass))
-        val angImpulse1 = (1 / ent1.inertia) * (ra cross impulse)
-        ent1.angularVelocity += angImpulse1
+        if (invMass1 != 0.0) ent1.velocity += (-impulse * invMass1)
+        ent1.angularVelocity += invInertia1 * (ra cross impulse)
 
-        ent2.velocity += (impulse * (1 / ent2.mass))
-        val angImpulse2 = (1 / ent2.inertia) * (rb cross impulse)
-        ent2.angularVelocity += angImpulse2
+        if (invMass2 != 0.0) ent2.velocity += (impulse * invMass2)
+        ent2.angularVelocity += invInertia2 * (rb cross impulse)
 
         val t = rv + (normal * -(rv dot normal)).unit
 
@@ -86,7 +111,10 @@ class MainCollisionResolver : CollisionResolver {
 
         val tangentImpulse = if (abs(jt) < j * sf) t * jt else t * j * -df
 
-        ent1.applyForce(tangentImpulse, ra)
-        ent2.applyForce(tangentImpulse, rb)
+        // not using applyForce, because it would wake up sleeping entities and keep resting entities from falling asleep
+        if (invMass1 != 0.0) ent1.velocity += tangentImpulse * invMass1
+        ent1.angularVelocity += invInertia1 * (ra cross tangentImpulse)
+        if (invMass2 != 0.0) ent2.velocity += tangentImpulse * invMass2
+        ent2.angularVelocity += invInertia2 * (rb cross tangentImpulse)
     }
 }
\ No newline at end of file
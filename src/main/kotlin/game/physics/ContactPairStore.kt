@@ -0,0 +1,204 @@
+package game.physics
+
+import game.entities.Entity
+import utils.LongHashMap
+
+/**
+ * keeps track of which pairs of entities are touching and reports when a contact begins, persists and ends (see
+ * [Entity.onContactBegin], [Entity.onContactPersist] and [Entity.onContactEnd]).
+ *
+ * Contacts are added while checking collisions and the events are dispatched once per step, after the collisions
+ * were resolved. The pairs are stored in a map with primitive keys (see [CollisionChecker.pairKey]) and the
+ * [Contact]-objects are reused, so a step without new contacts doesn't allocate.
+ *
+ * _Note: the store is not thread-safe_
+ */
+class ContactPairStore {
+
+    private val pairs: LongHashMap<Contact> = LongHashMap()
+
+    /**
+     * contacts that ended and can be reused for new pairs
+     */
+    private val pool: MutableList<Contact> = mutableListOf()
+
+    /**
+     * incremented in [dispatchEvents]; pairs that weren't added in the current step stopped touching
+     */
+    private var step: Int = 0
+
+    /**
+     * records that the entities of the collision are touching in the current step. Can be called multiple times per
+     * step for the same pair (for example once per substep); the last collision is kept
+     */
+    fun addContact(information: CollisionInformation) {
+        val ent1 = information.ent1
+        val ent2 = information.ent2
+        val key = CollisionChecker.pairKey(ent1, ent2)
+        var contact = pairs[key]
+        if (contact == null) {
+            contact = if (pool.isEmpty()) Contact() else pool.removeAt(pool.size - 1)
+            contact.isNew = true
+            pairs[key] = contact
+        }
+        contact.set(information)
+        contact.step = step
+    }
+
+    /**
+     * calls the begin-, persist- and end-events of all pairs and removes the pairs that stopped touching. Pairs in
+     * which both entities are sleeping or static aren't checked for collisions, so they are kept without events
+     * until one of the entities wakes up or is removed
+     */
+    fun dispatchEvents() {
+        val step = this.step
+        pairs.removeIf { _, contact ->
+            val ent1 = contact.ent1
+            val ent2 = contact.ent2
+            if (contact.step == step) {
+                // removing an entry can move an already visited entry forward, so it would be visited twice
+                if (contact.dispatchedStep == step) return@removeIf false
+                contact.dispatchedStep = step
+                if (contact.isNew) {
+                    contact.isNew = false
+                    ent1.beginContact(contact)
+                    ent2.beginContact(contact)
+                } else {
+                    ent1.persistContact(contact)
+                    ent2.persistContact(contact)
+                }
+                return@removeIf false
+            }
+            if (!ent1.isMarkedForRemoval && !ent2.isMarkedForRemoval &&
+                (ent1.isSleeping || ent1.isStatic) && (ent2.isSleeping || ent2.isStatic)) {
+                return@removeIf false
+            }
+            ent1.endContact(contact)
+            ent2.endContact(contact)
+            contact.clear()
+            pool.add(contact)
+            true
+        }
+        this.step++
+    }
+
+    /**
+     * removes all pairs without calling events
+     */
+    fun clear() {
+        pairs.forEach { _, contact ->
+            contact.clear()
+            pool.add(contact)
+        }
+        pairs.clear()
+    }
+
+}
+
+/**
+ * a pair of touching entities and the last collision between them.
+ *
+ * _Note: contacts are reused when the entities stop touching, so they should not be stored after an event_
+ */
+class Contact internal constructor() {
+
+    private var entity1: Entity? = null
+    private var entity2: Entity? = null
+
+    /**
+     * the first entity; the normal points from [ent2] to ent1
+     */
+    val ent1: Entity
+        get() = entity1!!
+
+    /**
+     * the second entity
+     */
+    val ent2: Entity
+        get() = entity2!!
+
+    /**
+     * the unit normal of the last collision; points from [ent2] to [ent1]
+     */
+    var normalX: Double = 0.0
+        private set
+
+    /**
+     * see [normalX]
+     */
+    var normalY: Double = 0.0
+        private set
+
+    /**
+     * how deep the entities penetrated in the last collision
+     */
+    var depth: Double = 0.0
+        private set
+
+    /**
+     * the approximated point of the last collision; the average of the contact points
+     */
+    var pointX: Double = 0.0
+        private set
+
+    /**
+     * see [pointX]
+     */
+    var pointY: Double = 0.0
+        private set
+
+    /**
+     * true if the begin-event wasn't dispatched yet
+     */
+    internal var isNew: Boolean = false
+
+    /**
+     * the last step in which the entities were touching
+     */
+    internal var step: Int = 0
+
+    /**
+     * the last step in which the begin- or persist-event was dispatched
+     */
+    internal var dispatchedStep: Int = -1
+
+    /**
+     * @return the entity in the pair that isn't [ent]
+     */
+    fun other(ent: Entity): Entity = if (ent === ent1) ent2 else ent1
+
+    internal fun set(information: CollisionInformation) {
+        val ent1 = information.ent1
+        val ent2 = information.ent2
+        entity1 = ent1
+        entity2 = ent2
+        normalX = information.normalX
+        normalY = information.normalY
+        depth = information.depth
+        when (information.pointCount) {
+            0 -> {
+                pointX = (ent1.position.x + ent2.position.x) * 0.5
+                pointY = (ent1.position.y + ent2.position.y) * 0.5
+            }
+            1 -> {
+                pointX = information.point1X
+                pointY = information.point1Y
+            }
+            else -> {
+                pointX = (information.point1X + information.point2X) * 0.5
+                pointY = (information.point1Y + information.point2Y) * 0.5
+            }
+        }
+    }
+
+    /**
+     * releases the entities, so the pool doesn't keep removed entities alive
+     */
+    internal fun clear() {
+        entity1 = null
+        entity2 = null
+        isNew = false
+        dispatchedStep = -1
+    }
+
+}
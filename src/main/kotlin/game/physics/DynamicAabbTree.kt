@@ -0,0 +1,477 @@
+package game.physics
+
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * a dynamic bounding volume hierarchy of axis aligned boxes. Each leaf stores a box and a user-value. The tree is
+ * kept balanced using rotations, so inserting, removing and querying are all O(log n).
+ *
+ * Leafs are inserted with a box that is enlarged by [margin] (the 'fat' box); [move] only reinserts a leaf when the
+ * new box is no longer contained in the fat box.
+ *
+ * _Note: the tree is not thread-safe_
+ * @param margin the amount by which the boxes of the leafs are enlarged in each direction
+ * @param T the type of the values stored in the leafs
+ */
+class DynamicAabbTree<T>(val margin: Double = 0.0) {
+
+    private var minX: DoubleArray = DoubleArray(16)
+    private var minY: DoubleArray = DoubleArray(16)
+    private var maxX: DoubleArray = DoubleArray(16)
+    private var maxY: DoubleArray = DoubleArray(16)
+    private var parent: IntArray = IntArray(16)
+    private var child1: IntArray = IntArray(16)
+    private var child2: IntArray = IntArray(16)
+
+    /**
+     * the height of the subtree of the node; 0 for leafs, -1 for free nodes
+     */
+    private var height: IntArray = IntArray(16)
+    private var values: Array<Any?> = arrayOfNulls(16)
+
+    private var root: Int = NULL
+
+    /**
+     * the first node of the list of free nodes; free nodes are linked using [parent]
+     */
+    private var freeList: Int = NULL
+
+    /**
+     * stacks used for traversing the tree; one per nesting level, so a callback can query the tree again
+     */
+    private val stacks: MutableList<IntArray> = mutableListOf()
+    private var stackDepth: Int = 0
+
+    /**
+     * the amount of leafs in the tree
+     */
+    var size: Int = 0
+        private set
+
+    init {
+        linkFreeNodes(0, 16)
+    }
+
+    /**
+     * inserts a new leaf
+     * @param value the value that is stored in the leaf
+     * @return the id of the leaf (the proxy), used for [move], [remove] and [getValue]
+     */
+    fun insert(minX: Double, minY: Double, maxX: Double, maxY: Double, value: T): Int {
+        val proxy = allocateNode()
+        setFatBounds(proxy, minX, minY, maxX, maxY)
+        values[proxy] = value
+        height[proxy] = 0
+        insertLeaf(proxy)
+        size++
+        return proxy
+    }
+
+    /**
+     * removes a leaf that was previously added using [insert]
+     */
+    fun remove(proxy: Int) {
+        removeLeaf(proxy)
+        freeNode(proxy)
+        size--
+    }
+
+    /**
+     * updates the box of a leaf. The leaf is only reinserted if the box is no longer contained in its fat box
+     * @return true if the leaf was reinserted
+     */
+    fun move(proxy: Int, minX: Double, minY: Double, maxX: Double, maxY: Double): Boolean {
+        if (this.minX[proxy] <= minX && this.minY[proxy] <= minY &&
+            this.maxX[proxy] >= maxX && this.maxY[proxy] >= maxY) return false
+        removeLeaf(proxy)
+        setFatBounds(proxy, minX, minY, maxX, maxY)
+        insertLeaf(proxy)
+        return true
+    }
+
+    /**
+     * @return the value stored in the leaf
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun getValue(proxy: Int): T = values[proxy] as T
+
+    fun getFatMinX(proxy: Int): Double = minX[proxy]
+    fun getFatMinY(proxy: Int): Double = minY[proxy]
+    fun getFatMaxX(proxy: Int): Double = maxX[proxy]
+    fun getFatMaxY(proxy: Int): Double = maxY[proxy]
+
+    /**
+     * calls the callback for every leaf whose fat box intersects the area
+     * @param callback is called with the value of the leaf; returning false stops the query
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun query(minX: Double, minY: Double, maxX: Double, maxY: Double, callback: QueryCallback<T>) {
+        if (root == NULL) return
+        var stack = acquireStack()
+        var top = 0
+        stack[top++] = root
+        try {
+            while (top > 0) {
+                val node = stack[--top]
+                if (this.minX[node] > maxX || this.maxX[node] < minX ||
+                    this.minY[node] > maxY || this.maxY[node] < minY) continue
+                if (height[node] == 0) {
+                    if (!callback.onHit(values[node] as T)) return
+                    continue
+                }
+                if (top + 2 > stack.size) stack = growStack(stack)
+                stack[top++] = child1[node]
+                stack[top++] = child2[node]
+            }
+        } finally {
+            stackDepth--
+        }
+    }
+
+    /**
+     * casts a ray through the tree and calls the callback for every leaf whose fat box is hit by the ray. The ray is
+     * defined as origin + direction * t for 0 <= t <= maxFraction
+     * @param callback is called with the value of the leaf and the current maxFraction; it returns the new
+     * maxFraction (for example the fraction at which the ray hit the actual shape), so leafs further away are skipped.
+     * Returning 0 stops the raycast
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun raycast(
+        originX: Double,
+        originY: Double,
+        directionX: Double,
+        directionY: Double,
+        maxFraction: Double,
+        callback: RaycastCallback<T>
+    ) {
+        if (root == NULL) return
+        var curMaxFraction = maxFraction
+        var stack = acquireStack()
+        var top = 0
+        stack[top++] = root
+        try {
+            while (top > 0) {
+                val node = stack[--top]
+                if (!rayIntersects(node, originX, originY, directionX, directionY, curMaxFraction)) continue
+                if (height[node] == 0) {
+                    val fraction = callback.onHit(values[node] as T, curMaxFraction)
+                    if (fraction <= 0.0) return
+                    if (fraction < curMaxFraction) curMaxFraction = fraction
+                    continue
+                }
+                if (top + 2 > stack.size) stack = growStack(stack)
+                stack[top++] = child1[node]
+                stack[top++] = child2[node]
+            }
+        } finally {
+            stackDepth--
+        }
+    }
+
+    /**
+     * removes all leafs
+     */
+    fun clear() {
+        for (i in 0 until minX.size) values[i] = null
+        root = NULL
+        size = 0
+        freeList = NULL
+        linkFreeNodes(0, minX.size)
+    }
+
+    private fun rayIntersects(
+        node: Int,
+        originX: Double,
+        originY: Double,
+        directionX: Double,
+        directionY: Double,
+        maxFraction: Double
+    ): Boolean {
+        var tMin = 0.0
+        var tMax = maxFraction
+        if (abs(directionX) < EPSILON) {
+            if (originX < minX[node] || originX > maxX[node]) return false
+        } else {
+            val t1 = (minX[node] - originX) / directionX
+            val t2 = (maxX[node] - originX) / directionX
+            tMin = max(tMin, min(t1, t2))
+            tMax = min(tMax, max(t1, t2))
+            if (tMin > tMax) return false
+        }
+        if (abs(directionY) < EPSILON) {
+            if (originY < minY[node] || originY > maxY[node]) return false
+        } else {
+            val t1 = (minY[node] - originY) / directionY
+            val t2 = (maxY[node] - originY) / directionY
+            tMin = max(tMin, min(t1, t2))
+            tMax = min(tMax, max(t1, t2))
+            if (tMin > tMax) return false
+        }
+        return true
+    }
+
+    private fun setFatBounds(node: Int, minX: Double, minY: Double, maxX: Double, maxY: Double) {
+        this.minX[node] = minX - margin
+        this.minY[node] = minY - margin
+        this.maxX[node] = maxX + margin
+        this.maxY[node] = maxY + margin
+    }
+
+    private fun insertLeaf(leaf: Int) {
+        if (root == NULL) {
+            root = leaf
+            parent[leaf] = NULL
+            return
+        }
+
+        // find the best sibling by descending into the child that increases the perimeter the least
+        var index = root
+        while (height[index] != 0) {
+            val c1 = child1[index]
+            val c2 = child2[index]
+            val perimeter = perimeter(index)
+            val combinedPerimeter = combinedPerimeter(index, leaf)
+            val cost = 2 * combinedPerimeter
+            val inheritanceCost = 2 * (combinedPerimeter - perimeter)
+            val cost1 = combinedPerimeter(c1, leaf) + inheritanceCost -
+                    (if (height[c1] == 0) 0.0 else perimeter(c1))
+            val cost2 = combinedPerimeter(c2, leaf) + inheritanceCost -
+                    (if (height[c2] == 0) 0.0 else perimeter(c2))
+            if (cost < cost1 && cost < cost2) break
+            index = if (cost1 < cost2) c1 else c2
+        }
+
+        val sibling = index
+        val oldParent = parent[sibling]
+        val newParent = allocateNode()
+        parent[newParent] = oldParent
+        values[newParent] = null
+        setUnion(newParent, sibling, leaf)
+        height[newParent] = height[sibling] + 1
+        if (oldParent != NULL) {
+            if (child1[oldParent] == sibling) child1[oldParent] = newParent else child2[oldParent] = newParent
+        } else {
+            root = newParent
+        }
+        child1[newParent] = sibling
+        child2[newParent] = leaf
+        parent[sibling] = newParent
+        parent[leaf] = newParent
+
+        refit(parent[leaf])
+    }
+
+    private fun removeLeaf(leaf: Int) {
+        if (leaf == root) {
+            root = NULL
+            return
+        }
+        val p = parent[leaf]
+        val grandParent = parent[p]
+        val sibling = if (child1[p] == leaf) child2[p] else child1[p]
+        if (grandParent != NULL) {
+            if (child1[grandParent] == p) child1[grandParent] = sibling else child2[grandParent] = sibling
+            parent[sibling] = grandParent
+            freeNode(p)
+            refit(grandParent)
+        } else {
+            root = sibling
+            parent[sibling] = NULL
+            freeNode(p)
+        }
+    }
+
+    /**
+     * walks up the tree starting at the node, balancing it and recalculating heights and boxes
+     */
+    private fun refit(start: Int) {
+        var index = start
+        while (index != NULL) {
+            index = balance(index)
+            val c1 = child1[index]
+            val c2 = child2[index]
+            height[index] = 1 + max(height[c1], height[c2])
+            setUnion(index, c1, c2)
+            index = parent[index]
+        }
+    }
+
+    /**
+     * performs a left or right rotation if the node is imbalanced
+     * @return the index of the node that now takes the place of the node
+     */
+    private fun balance(a: Int): Int {
+        if (height[a] < 2) return a
+        val b = child1[a]
+        val c = child2[a]
+        val balance = height[c] - height[b]
+
+        if (balance > 1) {
+            // rotate c up
+            val f = child1[c]
+            val g = child2[c]
+            child1[c] = a
+            parent[c] = parent[a]
+            parent[a] = c
+            replaceChild(parent[c], a, c)
+            if (height[f] > height[g]) {
+                child2[c] = f
+                child2[a] = g
+                parent[g] = a
+                setUnion(a, b, g)
+                setUnion(c, a, f)
+                height[a] = 1 + max(height[b], height[g])
+                height[c] = 1 + max(height[a], height[f])
+            } else {
+                child2[c] = g
+                child2[a] = f
+                parent[f] = a
+                setUnion(a, b, f)
+                setUnion(c, a, g)
+                height[a] = 1 + max(height[b], height[f])
+                height[c] = 1 + max(height[a], height[g])
+            }
+            return c
+        }
+
+        if (balance < -1) {
+            // rotate b up
+            val d = child1[b]
+            val e = child2[b]
+            child1[b] = a
+            parent[b] = parent[a]
+            parent[a] = b
+            replaceChild(parent[b], a, b)
+            if (height[d] > height[e]) {
+                child2[b] = d
+                child1[a] = e
+                parent[e] = a
+                setUnion(a, c, e)
+                setUnion(b, a, d)
+                height[a] = 1 + max(height[c], height[e])
+                height[b] = 1 + max(height[a], height[d])
+            } else {
+                child2[b] = e
+                child1[a] = d
+                parent[d] = a
+                setUnion(a, c, d)
+                setUnion(b, a, e)
+                height[a] = 1 + max(height[c], height[d])
+                height[b] = 1 + max(height[a], height[e])
+            }
+            return b
+        }
+        return a
+    }
+
+    /**
+     * replaces the child of a node; if the node is [NULL] the root is replaced instead
+     */
+    private fun replaceChild(node: Int, oldChild: Int, newChild: Int) {
+        if (node == NULL) {
+            root = newChild
+            return
+        }
+        if (child1[node] == oldChild) child1[node] = newChild else child2[node] = newChild
+    }
+
+    private fun setUnion(target: Int, n1: Int, n2: Int) {
+        minX[target] = min(minX[n1], minX[n2])
+        minY[target] = min(minY[n1], minY[n2])
+        maxX[target] = max(maxX[n1], maxX[n2])
+        maxY[target] = max(maxY[n1], maxY[n2])
+    }
+
+    private fun perimeter(node: Int): Double = 2 * (maxX[node] - minX[node] + maxY[node] - minY[node])
+
+    private fun combinedPerimeter(n1: Int, n2: Int): Double {
+        return 2 * (max(maxX[n1], maxX[n2]) - min(minX[n1], minX[n2]) +
+                max(maxY[n1], maxY[n2]) - min(minY[n1], minY[n2]))
+    }
+
+    private fun allocateNode(): Int {
+        if (freeList == NULL) {
+            val oldCapacity = minX.size
+            val newCapacity = oldCapacity * 2
+            minX = minX.copyOf(newCapacity)
+            minY = minY.copyOf(newCapacity)
+            maxX = maxX.copyOf(newCapacity)
+            maxY = maxY.copyOf(newCapacity)
+            parent = parent.copyOf(newCapacity)
+            child1 = child1.copyOf(newCapacity)
+            child2 = child2.copyOf(newCapacity)
+            height = height.copyOf(newCapacity)
+            values = values.copyOf(newCapacity)
+            linkFreeNodes(oldCapacity, newCapacity)
+        }
+        val node = freeList
+        freeList = parent[node]
+        parent[node] = NULL
+        child1[node] = NULL
+        child2[node] = NULL
+        height[node] = 0
+        return node
+    }
+
+    private fun freeNode(node: Int) {
+        parent[node] = freeList
+        height[node] = -1
+        values[node] = null
+        freeList = node
+    }
+
+    /**
+     * adds the nodes from start (inclusive) to end (exclusive) to the free-list
+     */
+    private fun linkFreeNodes(start: Int, end: Int) {
+        for (i in start until end - 1) {
+            parent[i] = i + 1
+            height[i] = -1
+        }
+        parent[end - 1] = freeList
+        height[end - 1] = -1
+        freeList = start
+    }
+
+    private fun acquireStack(): IntArray {
+        if (stackDepth == stacks.size) stacks.add(IntArray(64))
+        return stacks[stackDepth++]
+    }
+
+    private fun growStack(stack: IntArray): IntArray {
+        val newStack = stack.copyOf(stack.size * 2)
+        stacks[stackDepth - 1] = newStack
+        return newStack
+    }
+
+    /**
+     * called for the leafs found by [query]
+     */
+    fun interface QueryCallback<T> {
+
+        /**
+         * @return false to stop the query
+         */
+        fun onHit(value: T): Boolean
+    }
+
+    /**
+     * called for the leafs found by [raycast]
+     */
+    fun interface RaycastCallback<T> {
+
+        /**
+         * @param maxFraction the current maxFraction of the ray
+         * @return the new maxFraction; 0 to stop the raycast
+         */
+        fun onHit(value: T, maxFraction: Double): Double
+    }
+
+    private companion object {
+        const val NULL: Int = -1
+        const val EPSILON: Double = 1e-12
+    }
+
+}
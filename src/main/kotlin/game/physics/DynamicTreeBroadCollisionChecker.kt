@@ -0,0 +1,213 @@
+package game.physics
+
+import game.entities.Entity
+import java.util.*
+
+/**
+ * a broad-phase collision checker using two [DynamicAabbTree]s. Moving entities are inserted with fat boxes into
+ * one tree and are only reinserted when they leave their fat box. Static entities (see [Entity.isStatic]) are kept in
+ * a separate tree, which is only changed when static entities are added or removed.
+ *
+ * Besides being used as a broad-phase, the trees are used for spatial queries in [queryArea] and [raycast].
+ * @param margin the amount by which the boxes of moving entities are enlarged in each direction
+ */
+class DynamicTreeBroadCollisionChecker(val margin: Double = 10.0) : BroadCollisionChecker {
+
+    private val dynamicTree: DynamicAabbTree<Proxy> = DynamicAabbTree(margin)
+
+    private val staticTree: DynamicAabbTree<Proxy> = DynamicAabbTree()
+
+    /**
+     * the proxies of all entities the checker currently knows about
+     */
+    private val proxies: IdentityHashMap<Entity, Proxy> = IdentityHashMap()
+
+    private val proxyList: MutableList<Proxy> = mutableListOf()
+
+    private val dynamicProxies: MutableList<Proxy> = mutableListOf()
+
+    /**
+     * incremented every time [getCollisionCandidates] is called
+     */
+    private var pass: Int = 0
+
+    /**
+     * reused callback for finding candidates, so querying doesn't allocate
+     */
+    private val candidateCallback: CandidateCallback = CandidateCallback()
+
+    override fun getCollisionCandidates(entities: List<Entity>): List<Pair<Entity, Entity>> {
+        pass++
+        updateProxies(entities)
+
+        val candidates = mutableListOf<Pair<Entity, Entity>>()
+        val callback = candidateCallback
+        callback.candidates = candidates
+        for (proxy in dynamicProxies) {
+            callback.proxy = proxy
+            dynamicTree.query(proxy.minX, proxy.minY, proxy.maxX, proxy.maxY, callback)
+            staticTree.query(proxy.minX, proxy.minY, proxy.maxX, proxy.maxY, callback)
+        }
+        callback.candidates = null
+        return candidates
+    }
+
+    /**
+     * calls the callback for every entity whose aabb intersects the area.
+     *
+     * _Note: the trees reflect the state of the last call to [getCollisionCandidates]. Entities that were added
+     * since then are not found, entities that moved out of their fat box since then may not be found_
+     */
+    override fun queryArea(
+        entities: List<Entity>,
+        minX: Double, minY: Double, maxX: Double, maxY: Double,
+        callback: (Entity) -> Boolean
+    ) {
+        var isStopped = false
+        val treeCallback = DynamicAabbTree.QueryCallback<Proxy> { proxy ->
+            val ent = proxy.entity
+            if (ent.aabb.intersects(minX, minY, maxX, maxY)) isStopped = !callback(ent)
+            !isStopped
+        }
+        staticTree.query(minX, minY, maxX, maxY, treeCallback)
+        if (!isStopped) dynamicTree.query(minX, minY, maxX, maxY, treeCallback)
+    }
+
+    /**
+     * casts a ray through the trees; see [BroadCollisionChecker.raycast].
+     *
+     * _Note: like [queryArea], the trees reflect the state of the last call to [getCollisionCandidates]_
+     */
+    override fun raycast(
+        entities: List<Entity>,
+        originX: Double, originY: Double, directionX: Double, directionY: Double, maxFraction: Double,
+        callback: (Entity, Double) -> Double
+    ) {
+        var curMaxFraction = maxFraction
+        val treeCallback = DynamicAabbTree.RaycastCallback<Proxy> { proxy, fraction ->
+            val ent = proxy.entity
+            if (!ent.aabb.intersectsRay(originX, originY, directionX, directionY, fraction)) return@RaycastCallback fraction
+            curMaxFraction = callback(ent, fraction)
+            curMaxFraction
+        }
+        staticTree.raycast(originX, originY, directionX, directionY, curMaxFraction, treeCallback)
+        if (curMaxFraction <= 0.0) return
+        dynamicTree.raycast(originX, originY, directionX, directionY, curMaxFraction, treeCallback)
+    }
+
+    /**
+     * creates, updates and removes the proxies, so they match the entity-list, and moves them between the trees
+     */
+    private fun updateProxies(entities: List<Entity>) {
+        dynamicProxies.clear()
+        for (i in entities.indices) {
+            val ent = entities[i]
+            if (!ent.isCollidable) continue
+            var proxy = proxies[ent]
+            if (proxy == null) {
+                proxy = Proxy(ent)
+                proxies[ent] = proxy
+                proxyList.add(proxy)
+            }
+            proxy.pass = pass
+            proxy.index = i
+            proxy.updateBounds()
+
+            val isStatic = ent.isStatic
+            if (proxy.treeProxy != NULL && proxy.isInStaticTree != isStatic) removeFromTree(proxy)
+            if (proxy.treeProxy == NULL) {
+                val tree = if (isStatic) staticTree else dynamicTree
+                proxy.treeProxy = tree.insert(proxy.minX, proxy.minY, proxy.maxX, proxy.maxY, proxy)
+                proxy.isInStaticTree = isStatic
+            } else if (isStatic) {
+                // static entities are inserted without margin, so any movement causes them to be reinserted
+                val treeProxy = proxy.treeProxy
+                if (staticTree.getFatMinX(treeProxy) != proxy.minX || staticTree.getFatMinY(treeProxy) != proxy.minY ||
+                    staticTree.getFatMaxX(treeProxy) != proxy.maxX || staticTree.getFatMaxY(treeProxy) != proxy.maxY) {
+                    staticTree.remove(proxy.treeProxy)
+                    proxy.treeProxy = staticTree.insert(proxy.minX, proxy.minY, proxy.maxX, proxy.maxY, proxy)
+                }
+            } else {
+                dynamicTree.move(proxy.treeProxy, proxy.minX, proxy.minY, proxy.maxX, proxy.maxY)
+            }
+            if (!isStatic) dynamicProxies.add(proxy)
+        }
+
+        val it = proxyList.iterator()
+        while (it.hasNext()) {
+            val proxy = it.next()
+            if (proxy.pass == pass) continue
+            removeFromTree(proxy)
+            proxies.remove(proxy.entity)
+            it.remove()
+        }
+    }
+
+    private fun removeFromTree(proxy: Proxy) {
+        (if (proxy.isInStaticTree) staticTree else dynamicTree).remove(proxy.treeProxy)
+        proxy.treeProxy = NULL
+    }
+
+    /**
+     * finds the candidates for [proxy]. Pairs of two moving entities are found twice (once from each side), so they
+     * are only added when the index of [proxy] is the smaller one
+     */
+    private class CandidateCallback : DynamicAabbTree.QueryCallback<Proxy> {
+
+        var proxy: Proxy? = null
+        var candidates: MutableList<Pair<Entity, Entity>>? = null
+
+        override fun onHit(value: Proxy): Boolean {
+            val proxy = this.proxy!!
+            if (value === proxy) return true
+            if (!value.isInStaticTree && value.index < proxy.index) return true
+            val ent1 = proxy.entity
+            val ent2 = value.entity
+            if (!BroadCollisionChecker.canCollide(ent1, ent2)) return true
+            if (!ent1.aabb.intersects(ent2.aabb)) return true
+            candidates!!.add(if (proxy.index < value.index) Pair(ent1, ent2) else Pair(ent2, ent1))
+            return true
+        }
+    }
+
+    /**
+     * stores the information the checker needs about an entity
+     */
+    private class Proxy(val entity: Entity) {
+
+        /**
+         * the index of the entity in the entity-list of the current pass
+         */
+        var index: Int = 0
+
+        /**
+         * the last pass in which the entity was still in the entity-list
+         */
+        var pass: Int = 0
+
+        /**
+         * the id of the leaf in the tree; [NULL] if the entity is not in a tree
+         */
+        var treeProxy: Int = NULL
+
+        var isInStaticTree: Boolean = false
+
+        var minX: Double = 0.0
+        var minY: Double = 0.0
+        var maxX: Double = 0.0
+        var maxY: Double = 0.0
+
+        fun updateBounds() {
+            val aabb = entity.aabb
+            minX = aabb.minX
+            minY = aabb.minY
+            maxX = aabb.maxX
+            maxY = aabb.maxY
+        }
+    }
+
+    private companion object {
+        const val NULL: Int = -1
+    }
+
+}
@@ -0,0 +1,758 @@
+package game.physics
+
+import game.entities.ChainEntity
+import game.entities.CircleEntity
+import game.entities.Entity
+import game.entities.PolygonEntity
+import utils.LongHashMap
+import kotlin.math.abs
+import kotlin.math.sqrt
+
+/**
+ * a [CollisionChecker] using the GJK-algorithm to find the distance between two shapes and the EPA-algorithm to find
+ * the penetration depth if they overlap. Both only use the support function of the shapes (the vertex that is
+ * furthest in a direction), so every convex shape is checked using the same code path.
+ *
+ * Shapes are split into a core and a radius: a polygon is its vertices with radius 0, a circle is its center with its
+ * radius. GJK only runs on the cores, so round shapes don't need to be approximated by polygons, and EPA is only needed
+ * when the cores themselves overlap. The simplex of every pair is cached and used as the starting point in the next
+ * step, which usually lets GJK finish after one or two iterations.
+ *
+ * [ChainEntity]s are not convex, so they are checked segment by segment and the deepest collision is kept.
+ *
+ * _Note: this checker finds one contact point per collision; [SatCollisionChecker] finds up to two for polygons_
+ */
+open class GjkCollisionChecker : CollisionChecker {
+
+    private val shape1: Shape = Shape()
+    private val shape2: Shape = Shape()
+
+    /**
+     * the simplex of the current GJK-run; only the first [simplexCount] vertices are used
+     */
+    private val simplex: Array<SimplexVertex> = Array(3) { SimplexVertex() }
+    private var simplexCount: Int = 0
+
+    /**
+     * the indices of the simplex before the last solve; used to detect when GJK stops making progress
+     */
+    private val savedIndicesA: IntArray = IntArray(3)
+    private val savedIndicesB: IntArray = IntArray(3)
+
+    /**
+     * the closest points on the cores of the shapes found by the last GJK-run
+     */
+    private var closestX1: Double = 0.0
+    private var closestY1: Double = 0.0
+    private var closestX2: Double = 0.0
+    private var closestY2: Double = 0.0
+
+    /**
+     * the distance between the cores found by the last GJK-run
+     */
+    private var coreDistance: Double = 0.0
+
+    /**
+     * the polytope used by EPA; stores the vertices of the minkowski difference together with the support points
+     * they were created from
+     */
+    private var polytope: Array<SimplexVertex> = Array(8) { SimplexVertex() }
+    private var polytopeCount: Int = 0
+
+    /**
+     * the simplices of the pairs from the last check; keyed by [CollisionChecker.pairKey]
+     */
+    private val simplexCaches: LongHashMap<SimplexCache> = LongHashMap()
+
+    /**
+     * incremented in [onStepFinished]; used to remove the caches of pairs that weren't checked anymore
+     */
+    private var step: Int = 0
+
+    override fun checkCollision(ent1: Entity, ent2: Entity): CollisionInformation? {
+        if (ent2 is ChainEntity && ent1 !is ChainEntity) return checkChainCollision(ent1, ent2)
+        if (ent1 is ChainEntity && ent2 !is ChainEntity) return checkChainCollision(ent2, ent1)
+        if (!shape1.set(ent1) || !shape2.set(ent2)) return null
+        runGjk(ent1, ent2, true)
+        if (!collideShapes(ent1, ent2)) return null
+        return CollisionInformation(ent1, ent2, normalX, normalY, depth, 1, pointX, pointY, depth)
+    }
+
+    /**
+     * the result of the last call to [collideShapes]
+     */
+    private var normalX: Double = 0.0
+    private var normalY: Double = 0.0
+    private var depth: Double = 0.0
+    private var pointX: Double = 0.0
+    private var pointY: Double = 0.0
+
+    /**
+     * calculates the normal, depth and contact point of [shape1] and [shape2] from the result of the last GJK-run
+     * and stores them in [normalX], [normalY], [depth], [pointX] and [pointY]
+     * @return true if the shapes are colliding
+     */
+    private fun collideShapes(ent1: Entity, ent2: Entity): Boolean {
+        val radius1 = shape1.radius
+        val radius2 = shape2.radius
+        val radiusSum = radius1 + radius2
+
+        val coresOverlap = simplexCount == 3 || coreDistance < EPSILON
+        val nx: Double
+        val ny: Double
+        val depth: Double
+        if (!coresOverlap) {
+            if (coreDistance >= radiusSum) return false
+            nx = (closestX1 - closestX2) / coreDistance
+            ny = (closestY1 - closestY2) / coreDistance
+            depth = radiusSum - coreDistance
+        } else if (runEpa()) {
+            nx = epaNormalX
+            ny = epaNormalY
+            depth = epaDepth + radiusSum
+            if (depth <= 0.0) return false
+        } else {
+            // the minkowski difference of the cores has no area (for example two points); fall back to the positions
+            var dx = ent1.position.x - ent2.position.x
+            var dy = ent1.position.y - ent2.position.y
+            val length = sqrt(dx * dx + dy * dy)
+            if (length > EPSILON) {
+                dx /= length
+                dy /= length
+            } else {
+                dx = 0.0
+                dy = 1.0
+            }
+            nx = dx
+            ny = dy
+            depth = radiusSum
+            if (depth <= 0.0) return false
+        }
+
+        // the contact point is in the middle of the surfaces of the shapes
+        pointX = (closestX1 - nx * radius1 + closestX2 + nx * radius2) * 0.5
+        pointY = (closestY1 - ny * radius1 + closestY2 + ny * radius2) * 0.5
+        normalX = nx
+        normalY = ny
+        this.depth = depth
+        return true
+    }
+
+    private var segmentEntity: Entity? = null
+    private var segmentChain: ChainEntity? = null
+    private var hasSegmentCollision: Boolean = false
+    private var deepestNormalX: Double = 0.0
+    private var deepestNormalY: Double = 0.0
+    private var deepestDepth: Double = 0.0
+    private var deepestPointX: Double = 0.0
+    private var deepestPointY: Double = 0.0
+
+    /**
+     * reused callback for querying the segments of a chain, so checking doesn't allocate
+     */
+    private val segmentCallback: DynamicAabbTree.QueryCallback<Int> = DynamicAabbTree.QueryCallback { segment ->
+        collideSegment(segment)
+        true
+    }
+
+    /**
+     * checks the entity against the segments of the chain that are close to it and keeps the deepest collision. The
+     * simplices of segments are not cached, because the pair-key doesn't identify the segment
+     */
+    private fun checkChainCollision(ent: Entity, chain: ChainEntity): CollisionInformation? {
+        if (!shape1.set(ent)) return null
+        chain.updateTransformCache()
+        val aabb = ent.aabb
+        hasSegmentCollision = false
+        segmentEntity = ent
+        segmentChain = chain
+        chain.querySegments(aabb.minX, aabb.minY, aabb.maxX, aabb.maxY, segmentCallback)
+        segmentEntity = null
+        segmentChain = null
+        if (!hasSegmentCollision) return null
+        return CollisionInformation(
+            ent, chain, deepestNormalX, deepestNormalY, deepestDepth, 1, deepestPointX, deepestPointY, deepestDepth
+        )
+    }
+
+    private fun collideSegment(segment: Int) {
+        val ent = segmentEntity!!
+        val chain = segmentChain!!
+        shape2.setSegment(chain, segment)
+        runGjk(ent, chain, false)
+        if (!collideShapes(ent, chain)) return
+        if (hasSegmentCollision && depth <= deepestDepth) return
+        hasSegmentCollision = true
+        deepestNormalX = normalX
+        deepestNormalY = normalY
+        deepestDepth = depth
+        deepestPointX = pointX
+        deepestPointY = pointY
+    }
+
+    override fun onStepFinished() {
+        val step = this.step
+        simplexCaches.removeIf { _, cache -> cache.step != step }
+        this.step++
+    }
+
+    /**
+     * the direction from the first to the second entity at the closest points, found by the last call to [distance];
+     * (0, 0) if the entities overlapped
+     */
+    var closestDirectionX: Double = 0.0
+        private set
+
+    /**
+     * see [closestDirectionX]
+     */
+    var closestDirectionY: Double = 0.0
+        private set
+
+    /**
+     * calculates the distance between two entities and the direction from the first to the second (see
+     * [closestDirectionX]).
+     * @param offsetX moves the first entity by this amount before calculating the distance, without changing its
+     * position
+     * @param offsetY see [offsetX]
+     * @return the distance between the surfaces of the entities; 0 if they overlap, -1 if the shape of one of the
+     * entities is not supported
+     */
+    fun distance(ent1: Entity, ent2: Entity, offsetX: Double = 0.0, offsetY: Double = 0.0): Double {
+        closestDirectionX = 0.0
+        closestDirectionY = 0.0
+        if (!shape1.set(ent1) || !shape2.set(ent2)) return -1.0
+        return shapeDistance(ent1, ent2, offsetX, offsetY, true)
+    }
+
+    /**
+     * like [distance], but calculates the distance to a single segment of a chain
+     * @param segment the index of the segment; see [ChainEntity.segmentCount]
+     */
+    fun distanceToSegment(ent: Entity, chain: ChainEntity, segment: Int, offsetX: Double = 0.0, offsetY: Double = 0.0): Double {
+        closestDirectionX = 0.0
+        closestDirectionY = 0.0
+        if (!shape1.set(ent)) return -1.0
+        chain.updateTransformCache()
+        shape2.setSegment(chain, segment)
+        return shapeDistance(ent, chain, offsetX, offsetY, false)
+    }
+
+    private fun shapeDistance(ent1: Entity, ent2: Entity, offsetX: Double, offsetY: Double, useCache: Boolean): Double {
+        shape1.offsetX = offsetX
+        shape1.offsetY = offsetY
+        runGjk(ent1, ent2, useCache)
+        shape1.offsetX = 0.0
+        shape1.offsetY = 0.0
+        if (simplexCount == 3 || coreDistance < EPSILON) return 0.0
+        closestDirectionX = (closestX2 - closestX1) / coreDistance
+        closestDirectionY = (closestY2 - closestY1) / coreDistance
+        return (coreDistance - shape1.radius - shape2.radius).coerceAtLeast(0.0)
+    }
+
+    /**
+     * finds the closest points between the cores of [shape1] and [shape2]. Starts with the cached simplex of the pair
+     * and stores the resulting simplex in the cache
+     * @param useCache if false, the cache is neither read nor written
+     */
+    private fun runGjk(ent1: Entity, ent2: Entity, useCache: Boolean) {
+        var cache: SimplexCache? = null
+        simplexCount = 0
+        if (useCache) {
+            val key = CollisionChecker.pairKey(ent1, ent2)
+            cache = simplexCaches[key]
+            if (cache == null) {
+                cache = SimplexCache()
+                simplexCaches[key] = cache
+            }
+            cache.step = step
+            // the cache is stored relative to the entity that was first when it was written, the order can change
+            val isSwapped = cache.ownerId != ent1.physicsId
+            for (i in 0 until cache.count) {
+                val indexA = if (isSwapped) cache.indicesB[i] else cache.indicesA[i]
+                val indexB = if (isSwapped) cache.indicesA[i] else cache.indicesB[i]
+                if (indexA >= shape1.count || indexB >= shape2.count) {
+                    simplexCount = 0
+                    break
+                }
+                addSimplexVertex(indexA, indexB)
+            }
+        }
+        if (simplexCount == 0) addSimplexVertex(0, 0)
+
+        val simplex = this.simplex
+        for (iteration in 0 until MAX_GJK_ITERATIONS) {
+            val savedCount = simplexCount
+            for (i in 0 until savedCount) {
+                savedIndicesA[i] = simplex[i].indexA
+                savedIndicesB[i] = simplex[i].indexB
+            }
+            when (simplexCount) {
+                2 -> solve2()
+                3 -> solve3()
+            }
+            // the origin is inside the simplex, so the cores overlap
+            if (simplexCount == 3) break
+
+            // the direction from the simplex towards the origin
+            val dx: Double
+            val dy: Double
+            if (simplexCount == 1) {
+                dx = -simplex[0].wx
+                dy = -simplex[0].wy
+            } else {
+                val ex = simplex[1].wx - simplex[0].wx
+                val ey = simplex[1].wy - simplex[0].wy
+                val sign = ex * -simplex[0].wy - ey * -simplex[0].wx
+                dx = if (sign > 0.0) -ey else ey
+                dy = if (sign > 0.0) ex else -ex
+            }
+            // the origin is on the simplex, the cores are touching
+            if (dx * dx + dy * dy < EPSILON * EPSILON) break
+
+            val indexA = shape1.support(-dx, -dy)
+            val indexB = shape2.support(dx, dy)
+            var isDuplicate = false
+            for (i in 0 until savedCount) {
+                if (savedIndicesA[i] == indexA && savedIndicesB[i] == indexB) {
+                    isDuplicate = true
+                    break
+                }
+            }
+            if (isDuplicate) break
+            addSimplexVertex(indexA, indexB)
+        }
+
+        computeClosestPoints()
+        if (cache == null) return
+        cache.ownerId = ent1.physicsId
+        cache.count = simplexCount
+        for (i in 0 until simplexCount) {
+            cache.indicesA[i] = simplex[i].indexA
+            cache.indicesB[i] = simplex[i].indexB
+        }
+    }
+
+    private fun addSimplexVertex(indexA: Int, indexB: Int) {
+        simplex[simplexCount++].set(shape1, indexA, shape2, indexB)
+    }
+
+    /**
+     * reduces a simplex with two vertices to the feature closest to the origin and calculates the barycentric
+     * coordinates of the closest point
+     */
+    private fun solve2() {
+        val v1 = simplex[0]
+        val v2 = simplex[1]
+        val ex = v2.wx - v1.wx
+        val ey = v2.wy - v1.wy
+        val d2 = -(v1.wx * ex + v1.wy * ey)
+        if (d2 <= 0.0) {
+            v1.a = 1.0
+            simplexCount = 1
+            return
+        }
+        val d1 = v2.wx * ex + v2.wy * ey
+        if (d1 <= 0.0) {
+            v2.a = 1.0
+            v1.set(v2)
+            simplexCount = 1
+            return
+        }
+        val inv = 1.0 / (d1 + d2)
+        v1.a = d1 * inv
+        v2.a = d2 * inv
+        simplexCount = 2
+    }
+
+    /**
+     * reduces a simplex with three vertices to the feature closest to the origin and calculates the barycentric
+     * coordinates of the closest point. Keeps all three vertices if the origin is inside the triangle
+     */
+    private fun solve3() {
+        val v1 = simplex[0]
+        val v2 = simplex[1]
+        val v3 = simplex[2]
+
+        val e12x = v2.wx - v1.wx
+        val e12y = v2.wy - v1.wy
+        val d12n1 = v2.wx * e12x + v2.wy * e12y
+        val d12n2 = -(v1.wx * e12x + v1.wy * e12y)
+
+        val e13x = v3.wx - v1.wx
+        val e13y = v3.wy - v1.wy
+        val d13n1 = v3.wx * e13x + v3.wy * e13y
+        val d13n2 = -(v1.wx * e13x + v1.wy * e13y)
+
+        val e23x = v3.wx - v2.wx
+        val e23y = v3.wy - v2.wy
+        val d23n1 = v3.wx * e23x + v3.wy * e23y
+        val d23n2 = -(v2.wx * e23x + v2.wy * e23y)
+
+        val n123 = e12x * e13y - e12y * e13x
+        val d123n1 = n123 * (v2.wx * v3.wy - v2.wy * v3.wx)
+        val d123n2 = n123 * (v3.wx * v1.wy - v3.wy * v1.wx)
+        val d123n3 = n123 * (v1.wx * v2.wy - v1.wy * v2.wx)
+
+        when {
+            d12n2 <= 0.0 && d13n2 <= 0.0 -> {
+                v1.a = 1.0
+                simplexCount = 1
+            }
+            d12n1 > 0.0 && d12n2 > 0.0 && d123n3 <= 0.0 -> {
+                val inv = 1.0 / (d12n1 + d12n2)
+                v1.a = d12n1 * inv
+                v2.a = d12n2 * inv
+                simplexCount = 2
+            }
+            d13n1 > 0.0 && d13n2 > 0.0 && d123n2 <= 0.0 -> {
+                val inv = 1.0 / (d13n1 + d13n2)
+                v1.a = d13n1 * inv
+                v3.a = d13n2 * inv
+                v2.set(v3)
+                simplexCount = 2
+            }
+            d12n1 <= 0.0 && d23n2 <= 0.0 -> {
+                v2.a = 1.0
+                v1.set(v2)
+                simplexCount = 1
+            }
+            d13n1 <= 0.0 && d23n1 <= 0.0 -> {
+                v3.a = 1.0
+                v1.set(v3)
+                simplexCount = 1
+            }
+            d23n1 > 0.0 && d23n2 > 0.0 && d123n1 <= 0.0 -> {
+                val inv = 1.0 / (d23n1 + d23n2)
+                v2.a = d23n1 * inv
+                v3.a = d23n2 * inv
+                v1.set(v3)
+                simplexCount = 2
+            }
+            else -> {
+                val inv = 1.0 / (d123n1 + d123n2 + d123n3)
+                v1.a = d123n1 * inv
+                v2.a = d123n2 * inv
+                v3.a = d123n3 * inv
+                simplexCount = 3
+            }
+        }
+    }
+
+    /**
+     * calculates [closestX1], [closestY1], [closestX2], [closestY2] and [coreDistance] from the simplex
+     */
+    private fun computeClosestPoints() {
+        var x1 = 0.0
+        var y1 = 0.0
+        var x2 = 0.0
+        var y2 = 0.0
+        if (simplexCount == 1) simplex[0].a = 1.0
+        for (i in 0 until simplexCount) {
+            val v = simplex[i]
+            x1 += v.a * v.x1
+            y1 += v.a * v.y1
+            x2 += v.a * v.x2
+            y2 += v.a * v.y2
+        }
+        if (simplexCount == 3) {
+            x2 = x1
+            y2 = y1
+        }
+        closestX1 = x1
+        closestY1 = y1
+        closestX2 = x2
+        closestY2 = y2
+        val dx = x2 - x1
+        val dy = y2 - y1
+        coreDistance = sqrt(dx * dx + dy * dy)
+    }
+
+    private var epaNormalX: Double = 0.0
+    private var epaNormalY: Double = 0.0
+    private var epaDepth: Double = 0.0
+
+    /**
+     * finds the penetration depth and normal of the overlapping cores by expanding the simplex of the last GJK-run
+     * towards the boundary of the minkowski difference. Stores the result in [epaNormalX], [epaNormalY] and
+     * [epaDepth] and updates the closest points
+     * @return false if no polytope with an area could be built
+     */
+    private fun runEpa(): Boolean {
+        polytopeCount = 0
+        for (i in 0 until simplexCount) addPolytopeVertex(polytopeCount, simplex[i].indexA, simplex[i].indexB)
+        if (polytopeCount == 1) {
+            for (direction in 0 until 4) {
+                val dx = if (direction < 2) (if (direction == 0) 1.0 else -1.0) else 0.0
+                val dy = if (direction < 2) 0.0 else (if (direction == 2) 1.0 else -1.0)
+                addPolytopeVertex(polytopeCount, shape1.support(-dx, -dy), shape2.support(dx, dy))
+                val v = polytope[1]
+                val dxw = v.wx - polytope[0].wx
+                val dyw = v.wy - polytope[0].wy
+                if (dxw * dxw + dyw * dyw > EPSILON * EPSILON) break
+                polytopeCount = 1
+            }
+            if (polytopeCount == 1) return false
+        }
+        if (polytopeCount == 2) {
+            val p0 = polytope[0]
+            val ex = polytope[1].wx - p0.wx
+            val ey = polytope[1].wy - p0.wy
+            for (sign in 0 until 2) {
+                val dx = if (sign == 0) -ey else ey
+                val dy = if (sign == 0) ex else -ex
+                addPolytopeVertex(2, shape1.support(-dx, -dy), shape2.support(dx, dy))
+                val v = polytope[2]
+                if (abs(ex * (v.wy - p0.wy) - ey * (v.wx - p0.wx)) > EPSILON * sqrt(ex * ex + ey * ey)) break
+                polytopeCount = 2
+            }
+            if (polytopeCount == 2) return false
+        }
+        // the edge-normals below are only outward facing for counter-clockwise polytopes
+        val p0 = polytope[0]
+        val p1 = polytope[1]
+        val p2 = polytope[2]
+        if ((p1.wx - p0.wx) * (p2.wy - p0.wy) - (p1.wy - p0.wy) * (p2.wx - p0.wx) < 0.0) {
+            polytope[1] = p2
+            polytope[2] = p1
+        }
+
+        var bestEdge = 0
+        var bestDistance = 0.0
+        var bestNx = 0.0
+        var bestNy = 0.0
+        for (iteration in 0 until MAX_EPA_ITERATIONS) {
+            bestDistance = Double.MAX_VALUE
+            for (i in 0 until polytopeCount) {
+                val v1 = polytope[i]
+                val v2 = polytope[if (i + 1 == polytopeCount) 0 else i + 1]
+                val ex = v2.wx - v1.wx
+                val ey = v2.wy - v1.wy
+                val length = sqrt(ex * ex + ey * ey)
+                if (length < EPSILON) continue
+                val nx = ey / length
+                val ny = -ex / length
+                val distance = nx * v1.wx + ny * v1.wy
+                if (distance < bestDistance) {
+                    bestDistance = distance
+                    bestEdge = i
+                    bestNx = nx
+                    bestNy = ny
+                }
+            }
+            val indexA = shape1.support(-bestNx, -bestNy)
+            val indexB = shape2.support(bestNx, bestNy)
+            val wx = shape2.xs[indexB] + shape2.offsetX - shape1.xs[indexA] - shape1.offsetX
+            val wy = shape2.ys[indexB] + shape2.offsetY - shape1.ys[indexA] - shape1.offsetY
+            val isConverged = bestNx * wx + bestNy * wy - bestDistance < EPA_TOLERANCE
+            if (isConverged || iteration == MAX_EPA_ITERATIONS - 1) break
+            addPolytopeVertex(bestEdge + 1, indexA, indexB)
+            removeReflexVertices()
+        }
+
+        // the closest point on the edge gives the closest points on the shapes
+        val v1 = polytope[bestEdge]
+        val v2 = polytope[if (bestEdge + 1 == polytopeCount) 0 else bestEdge + 1]
+        val ex = v2.wx - v1.wx
+        val ey = v2.wy - v1.wy
+        val lengthSquared = ex * ex + ey * ey
+        val t = if (lengthSquared < EPSILON) 0.0 else (-(v1.wx * ex + v1.wy * ey) / lengthSquared).coerceIn(0.0, 1.0)
+        closestX1 = v1.x1 + (v2.x1 - v1.x1) * t
+        closestY1 = v1.y1 + (v2.y1 - v1.y1) * t
+        closestX2 = v1.x2 + (v2.x2 - v1.x2) * t
+        closestY2 = v1.y2 + (v2.y2 - v1.y2) * t
+        epaNormalX = bestNx
+        epaNormalY = bestNy
+        epaDepth = bestDistance.coerceAtLeast(0.0)
+        return true
+    }
+
+    /**
+     * removes vertices that make the polytope concave. The vertices of the simplex that GJK started with are not
+     * necessarily on the boundary of the minkowski difference, so they can end up inside the polytope when it is
+     * expanded
+     */
+    private fun removeReflexVertices() {
+        var i = 0
+        while (i < polytopeCount && polytopeCount > 3) {
+            val prev = polytope[if (i == 0) polytopeCount - 1 else i - 1]
+            val cur = polytope[i]
+            val next = polytope[if (i + 1 == polytopeCount) 0 else i + 1]
+            val cross = (cur.wx - prev.wx) * (next.wy - cur.wy) - (cur.wy - prev.wy) * (next.wx - cur.wx)
+            if (cross > 0.0) {
+                i++
+                continue
+            }
+            for (j in i until polytopeCount - 1) polytope[j] = polytope[j + 1]
+            polytope[--polytopeCount] = cur
+            // the previous vertex could have become reflex
+            if (i > 0) i--
+        }
+    }
+
+    /**
+     * inserts a vertex into the polytope at [index]
+     */
+    private fun addPolytopeVertex(index: Int, indexA: Int, indexB: Int) {
+        if (polytopeCount == polytope.size) {
+            val old = polytope
+            polytope = Array(old.size * 2) { if (it < old.size) old[it] else SimplexVertex() }
+        }
+        // the vertex objects are moved around, so the unused one at the end is reused for the new vertex
+        val vertex = polytope[polytopeCount]
+        for (i in polytopeCount downTo index + 1) polytope[i] = polytope[i - 1]
+        polytope[index] = vertex
+        vertex.set(shape1, indexA, shape2, indexB)
+        polytopeCount++
+    }
+
+    /**
+     * the core of a shape (the vertices) and its radius
+     */
+    private class Shape {
+
+        var xs: DoubleArray = DoubleArray(0)
+        var ys: DoubleArray = DoubleArray(0)
+        var count: Int = 0
+        var radius: Double = 0.0
+
+        /**
+         * moves the shape without changing the entity; the support function doesn't depend on it
+         */
+        var offsetX: Double = 0.0
+        var offsetY: Double = 0.0
+
+        private val pointX: DoubleArray = DoubleArray(1)
+        private val pointY: DoubleArray = DoubleArray(1)
+        private val segmentXs: DoubleArray = DoubleArray(2)
+        private val segmentYs: DoubleArray = DoubleArray(2)
+
+        /**
+         * sets the shape to the shape of the entity
+         * @return false if the shape of the entity is not supported
+         */
+        fun set(ent: Entity): Boolean {
+            when (ent) {
+                is PolygonEntity -> {
+                    ent.updateTransformCache()
+                    xs = ent.worldVerticesX
+                    ys = ent.worldVerticesY
+                    count = xs.size
+                    radius = 0.0
+                }
+                is CircleEntity -> {
+                    pointX[0] = ent.position.x
+                    pointY[0] = ent.position.y
+                    xs = pointX
+                    ys = pointY
+                    count = 1
+                    radius = ent.radius
+                }
+                else -> return false
+            }
+            return true
+        }
+
+        /**
+         * sets the shape to a segment of the chain; [ChainEntity.updateTransformCache] must have been called
+         */
+        fun setSegment(chain: ChainEntity, segment: Int) {
+            val end = chain.segmentEnd(segment)
+            segmentXs[0] = chain.worldVerticesX[segment]
+            segmentYs[0] = chain.worldVerticesY[segment]
+            segmentXs[1] = chain.worldVerticesX[end]
+            segmentYs[1] = chain.worldVerticesY[end]
+            xs = segmentXs
+            ys = segmentYs
+            count = 2
+            radius = 0.0
+        }
+
+        /**
+         * @return the index of the vertex that is the furthest in the direction
+         */
+        fun support(dx: Double, dy: Double): Int {
+            var best = 0
+            var bestValue = -Double.MAX_VALUE
+            for (i in 0 until count) {
+                val value = dx * xs[i] + dy * ys[i]
+                if (value > bestValue) {
+                    bestValue = value
+                    best = i
+                }
+            }
+            return best
+        }
+    }
+
+    /**
+     * a vertex of the minkowski difference (w = point2 - point1) and the support points it was created from
+     */
+    private class SimplexVertex {
+
+        var x1: Double = 0.0
+        var y1: Double = 0.0
+        var x2: Double = 0.0
+        var y2: Double = 0.0
+        var wx: Double = 0.0
+        var wy: Double = 0.0
+        var indexA: Int = 0
+        var indexB: Int = 0
+
+        /**
+         * the barycentric coordinate of the vertex in the closest point of the simplex
+         */
+        var a: Double = 0.0
+
+        fun set(shape1: Shape, indexA: Int, shape2: Shape, indexB: Int) {
+            this.indexA = indexA
+            this.indexB = indexB
+            x1 = shape1.xs[indexA] + shape1.offsetX
+            y1 = shape1.ys[indexA] + shape1.offsetY
+            x2 = shape2.xs[indexB] + shape2.offsetX
+            y2 = shape2.ys[indexB] + shape2.offsetY
+            wx = x2 - x1
+            wy = y2 - y1
+        }
+
+        fun set(other: SimplexVertex) {
+            x1 = other.x1
+            y1 = other.y1
+            x2 = other.x2
+            y2 = other.y2
+            wx = other.wx
+            wy = other.wy
+            indexA = other.indexA
+            indexB = other.indexB
+            a = other.a
+        }
+    }
+
+    /**
+     * the simplex of a pair from the last check, stored as the indices of the support points
+     */
+    private class SimplexCache {
+
+        /**
+         * the physicsId of the entity the first indices belong to
+         */
+        var ownerId: Int = -1
+
+        var count: Int = 0
+        val indicesA: IntArray = IntArray(3)
+        val indicesB: IntArray = IntArray(3)
+
+        /**
+         * the step in which the pair was last checked
+         */
+        var step: Int = 0
+    }
+
+    private companion object {
+        const val MAX_GJK_ITERATIONS: Int = 20
+        const val MAX_EPA_ITERATIONS: Int = 32
+        const val EPSILON: Double = 1e-9
+        const val EPA_TOLERANCE: Double = 1e-6
+    }
+
+}
@@ -0,0 +1,573 @@
+package game.physics
+
+import game.entities.Entity
+import utils.LongHashMap
+import utils.Vector2D
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.pow
+import kotlin.math.sqrt
+
+/**
+ * a [CollisionResolver] that solves all contacts of a step together using sequential impulses. The impulses of all
+ * contact points are accumulated over [velocityIterations] iterations, so contacts that depend on each other (like
+ * the boxes in a stack) converge to a common solution. The accumulated impulses are cached and applied at the start of
+ * the next step (warm starting), so the solver starts close to the solution of resting contacts. The two points of a
+ * contact are solved together, so an entity resting on two points doesn't start rotating. Afterwards one pass moves
+ * the entities apart to correct the remaining penetration.
+ *
+ * Not used by default; set [game.Game.collisionResolver] to use it (see StackingTest in the examples).
+ *
+ * @param substepCount how often the entities are moved and collisions are resolved per tick; because the solver
+ * converges within a step, a single substep is usually enough
+ * @param velocityIterations how often all contacts are solved per step
+ * @param positionCorrection the fraction of the penetration that is corrected by the position-correction pass
+ * @param allowedPenetration the penetration that is not corrected, so resting contacts don't jitter
+ */
+class SequentialImpulseCollisionResolver(
+    override val substepCount: Int = 1,
+    var velocityIterations: Int = 8,
+    var positionCorrection: Double = 0.4,
+    var allowedPenetration: Double = 0.1
+) : CollisionResolver {
+
+    override val resolvesBeforeStep: Boolean
+        get() = true
+
+    /**
+     * the constraints of the current step; only the first [constraintCount] are used, the others are kept for reuse
+     */
+    private var constraints: Array<ContactConstraint?> = arrayOfNulls(32)
+    private var constraintCount: Int = 0
+
+    /**
+     * the entities taking part in the current step; their index is stored in [Entity.solverIndex]
+     */
+    private var bodies: Array<Entity?> = arrayOfNulls(32)
+    private var bodyCount: Int = 0
+
+    private var velocitiesX: DoubleArray = DoubleArray(32)
+    private var velocitiesY: DoubleArray = DoubleArray(32)
+
+    /**
+     * the angular velocities in rad per tick (see [ANGULAR_VELOCITY_SCALE])
+     */
+    private var angularVelocities: DoubleArray = DoubleArray(32)
+    private var inverseMasses: DoubleArray = DoubleArray(32)
+    private var inverseInertias: DoubleArray = DoubleArray(32)
+
+    /**
+     * the translation and rotation applied by the position-correction pass
+     */
+    private var translationsX: DoubleArray = DoubleArray(32)
+    private var translationsY: DoubleArray = DoubleArray(32)
+    private var rotations: DoubleArray = DoubleArray(32)
+
+    /**
+     * the accumulated impulses of the last step, keyed by [CollisionChecker.pairKey]
+     */
+    private val impulseCache: LongHashMap<CachedImpulses> = LongHashMap()
+
+    /**
+     * incremented every time [resolveCollisions] is called; used to remove cached impulses of pairs that stopped
+     * colliding
+     */
+    private var step: Int = 0
+
+    /**
+     * resolves a single collision on its own. The cached impulses are neither used nor updated, because they belong to
+     * the collisions of the last call to [resolveCollisions]; collisions that are resolved one by one are solved
+     * without warm starting
+     */
+    override fun resolveCollision(information: CollisionInformation) {
+        if (!isResolvable(information)) return
+        prepareConstraint(information)
+        solve()
+        writeBack()
+    }
+
+    override fun resolveCollisions(collisions: List<CollisionInformation>) {
+        step++
+        for (collision in collisions) {
+            if (!isResolvable(collision)) continue
+            val constraint = prepareConstraint(collision)
+            readCachedImpulses(constraint, CollisionChecker.pairKey(collision.ent1, collision.ent2), collision.ent1)
+        }
+
+        for (i in 0 until constraintCount) warmStart(constraints[i]!!)
+        solve()
+        for (i in 0 until constraintCount) storeImpulses(constraints[i]!!)
+
+        writeBack()
+        impulseCache.removeIf { _, cached -> cached.step != step }
+    }
+
+    private fun isResolvable(collision: CollisionInformation): Boolean =
+        collision.pointCount != 0 && !collision.ent1.skipCollisionResolution && !collision.ent2.skipCollisionResolution
+
+    /**
+     * solves the velocities of the prepared constraints and corrects the positions
+     */
+    private fun solve() {
+        for (iteration in 0 until velocityIterations) {
+            for (i in 0 until constraintCount) solveVelocities(constraints[i]!!)
+        }
+        for (i in 0 until constraintCount) correctPositions(constraints[i]!!)
+    }
+
+    /**
+     * initializes a constraint for the collision: calculates the effective masses and the restitution-bias of every
+     * point
+     */
+    private fun prepareConstraint(collision: CollisionInformation): ContactConstraint {
+        val ent1 = collision.ent1
+        val ent2 = collision.ent2
+        if (constraintCount == constraints.size) constraints = constraints.copyOf(constraintCount * 2)
+        val constraint = constraints[constraintCount] ?: ContactConstraint().also { constraints[constraintCount] = it }
+        constraintCount++
+
+        val body1 = addBody(ent1)
+        val body2 = addBody(ent2)
+        constraint.body1 = body1
+        constraint.body2 = body2
+        constraint.normalX = collision.normalX
+        constraint.normalY = collision.normalY
+        constraint.friction = sqrt(ent1.staticFriction.pow(2) + ent2.staticFriction.pow(2))
+        val restitution = min(ent1.restitution, ent2.restitution)
+        constraint.pointCount = min(collision.pointCount, 2)
+
+        val nx = constraint.normalX
+        val ny = constraint.normalY
+        val invMass = inverseMasses[body1] + inverseMasses[body2]
+        val invInertia1 = inverseInertias[body1]
+        val invInertia2 = inverseInertias[body2]
+        val position1 = ent1.position
+        val position2 = ent2.position
+        for (i in 0 until constraint.pointCount) {
+            val pointX = if (i == 0) collision.point1X else collision.point2X
+            val pointY = if (i == 0) collision.point1Y else collision.point2Y
+            val r1x = pointX - position1.x
+            val r1y = pointY - position1.y
+            val r2x = pointX - position2.x
+            val r2y = pointY - position2.y
+            constraint.r1X[i] = r1x
+            constraint.r1Y[i] = r1y
+            constraint.r2X[i] = r2x
+            constraint.r2Y[i] = r2y
+            constraint.depths[i] = if (i == 0) collision.point1Depth else collision.point2Depth
+
+            val rn1 = perpDot(r1x, r1y, nx, ny)
+            val rn2 = perpDot(r2x, r2y, nx, ny)
+            val normalMass = invMass + invInertia1 * rn1 * rn1 + invInertia2 * rn2 * rn2
+            constraint.normalMasses[i] = if (normalMass > 0.0) 1.0 / normalMass else 0.0
+            val rt1 = perpDot(r1x, r1y, -ny, nx)
+            val rt2 = perpDot(r2x, r2y, -ny, nx)
+            val tangentMass = invMass + invInertia1 * rt1 * rt1 + invInertia2 * rt2 * rt2
+            constraint.tangentMasses[i] = if (tangentMass > 0.0) 1.0 / tangentMass else 0.0
+
+            val normalVelocity = relativeVelocityX(constraint, i) * nx + relativeVelocityY(constraint, i) * ny
+            constraint.velocityBiases[i] =
+                if (normalVelocity < -RESTITUTION_THRESHOLD) -restitution * normalVelocity else 0.0
+            constraint.normalImpulses[i] = 0.0
+            constraint.tangentImpulses[i] = 0.0
+        }
+        if (constraint.pointCount == 2) {
+            val rn1a = perpDot(constraint.r1X[0], constraint.r1Y[0], nx, ny)
+            val rn1b = perpDot(constraint.r1X[1], constraint.r1Y[1], nx, ny)
+            val rn2a = perpDot(constraint.r2X[0], constraint.r2Y[0], nx, ny)
+            val rn2b = perpDot(constraint.r2X[1], constraint.r2Y[1], nx, ny)
+            constraint.k11 = invMass + invInertia1 * rn1a * rn1a + invInertia2 * rn2a * rn2a
+            constraint.k22 = invMass + invInertia1 * rn1b * rn1b + invInertia2 * rn2b * rn2b
+            constraint.k12 = invMass + invInertia1 * rn1a * rn1b + invInertia2 * rn2a * rn2b
+            // if the points are too close together, the system can't be solved accurately
+            constraint.isBlockSolvable = constraint.k11 * constraint.k11 <
+                    MAX_CONDITION_NUMBER * (constraint.k11 * constraint.k22 - constraint.k12 * constraint.k12)
+        }
+        return constraint
+    }
+
+    /**
+     * reads the impulses of the matching points from the last step. Points are matched by their position relative to
+     * the first entity
+     */
+    private fun readCachedImpulses(constraint: ContactConstraint, key: Long, ent1: Entity) {
+        val cached = impulseCache[key] ?: return
+        val isSwapped = cached.ownerId != ent1.physicsId
+        for (i in 0 until constraint.pointCount) {
+            val rx = if (isSwapped) constraint.r2X[i] else constraint.r1X[i]
+            val ry = if (isSwapped) constraint.r2Y[i] else constraint.r1Y[i]
+            var best = -1
+            var bestDistance = WARM_START_DISTANCE * WARM_START_DISTANCE
+            for (j in 0 until cached.pointCount) {
+                val dx = cached.rX[j] - rx
+                val dy = cached.rY[j] - ry
+                val distance = dx * dx + dy * dy
+                if (distance < bestDistance) {
+                    bestDistance = distance
+                    best = j
+                }
+            }
+            if (best == -1) continue
+            constraint.normalImpulses[i] = cached.normalImpulses[best]
+            constraint.tangentImpulses[i] = cached.tangentImpulses[best]
+        }
+    }
+
+    private fun storeImpulses(constraint: ContactConstraint) {
+        val ent1 = bodies[constraint.body1]!!
+        val key = CollisionChecker.pairKey(ent1, bodies[constraint.body2]!!)
+        var cached = impulseCache[key]
+        if (cached == null) {
+            cached = CachedImpulses()
+            impulseCache[key] = cached
+        }
+        cached.step = step
+        cached.ownerId = ent1.physicsId
+        cached.pointCount = constraint.pointCount
+        for (i in 0 until constraint.pointCount) {
+            cached.rX[i] = constraint.r1X[i]
+            cached.rY[i] = constraint.r1Y[i]
+            cached.normalImpulses[i] = constraint.normalImpulses[i]
+            cached.tangentImpulses[i] = constraint.tangentImpulses[i]
+        }
+    }
+
+    private fun warmStart(constraint: ContactConstraint) {
+        val nx = constraint.normalX
+        val ny = constraint.normalY
+        for (i in 0 until constraint.pointCount) {
+            val normalImpulse = constraint.normalImpulses[i]
+            val tangentImpulse = constraint.tangentImpulses[i]
+            if (normalImpulse == 0.0 && tangentImpulse == 0.0) continue
+            applyImpulse(
+                constraint, i,
+                nx * normalImpulse - ny * tangentImpulse,
+                ny * normalImpulse + nx * tangentImpulse
+            )
+        }
+    }
+
+    /**
+     * solves the friction and the non-penetration constraints of all points once, clamping the accumulated impulses
+     */
+    private fun solveVelocities(constraint: ContactConstraint) {
+        val nx = constraint.normalX
+        val ny = constraint.normalY
+        val tx = -ny
+        val ty = nx
+        for (i in 0 until constraint.pointCount) {
+            val maxFriction = constraint.friction * constraint.normalImpulses[i]
+            val tangentVelocity = relativeVelocityX(constraint, i) * tx + relativeVelocityY(constraint, i) * ty
+            val oldTangentImpulse = constraint.tangentImpulses[i]
+            val newTangentImpulse = (oldTangentImpulse - tangentVelocity * constraint.tangentMasses[i])
+                .coerceIn(-maxFriction, maxFriction)
+            constraint.tangentImpulses[i] = newTangentImpulse
+            val tangentImpulse = newTangentImpulse - oldTangentImpulse
+            applyImpulse(constraint, i, tx * tangentImpulse, ty * tangentImpulse)
+        }
+        if (constraint.pointCount == 2 && constraint.isBlockSolvable) {
+            solveNormalsTogether(constraint)
+            return
+        }
+        for (i in 0 until constraint.pointCount) {
+            val normalVelocity = relativeVelocityX(constraint, i) * nx + relativeVelocityY(constraint, i) * ny
+            val oldNormalImpulse = constraint.normalImpulses[i]
+            val newNormalImpulse = max(
+                oldNormalImpulse + (constraint.velocityBiases[i] - normalVelocity) * constraint.normalMasses[i],
+                0.0
+            )
+            constraint.normalImpulses[i] = newNormalImpulse
+            val normalImpulse = newNormalImpulse - oldNormalImpulse
+            applyImpulse(constraint, i, nx * normalImpulse, ny * normalImpulse)
+        }
+    }
+
+    /**
+     * solves the non-penetration constraints of both points of a constraint at once. Solving them one after the other
+     * lets the first point take more of the load than the second in every iteration, which rotates stacked entities a
+     * little every step. Instead, the accumulated impulses are chosen so both points satisfy the constraint together:
+     * the 2x2 system of the effective masses is solved, and if that needs a negative impulse, the cases in which
+     * one or both points separate are tried
+     */
+    private fun solveNormalsTogether(constraint: ContactConstraint) {
+        val nx = constraint.normalX
+        val ny = constraint.normalY
+        val oldImpulse1 = constraint.normalImpulses[0]
+        val oldImpulse2 = constraint.normalImpulses[1]
+        val normalVelocity1 = relativeVelocityX(constraint, 0) * nx + relativeVelocityY(constraint, 0) * ny
+        val normalVelocity2 = relativeVelocityX(constraint, 1) * nx + relativeVelocityY(constraint, 1) * ny
+        val k11 = constraint.k11
+        val k12 = constraint.k12
+        val k22 = constraint.k22
+        // the normal velocities without the accumulated impulses, minus the targeted velocities
+        val b1 = normalVelocity1 - constraint.velocityBiases[0] - (k11 * oldImpulse1 + k12 * oldImpulse2)
+        val b2 = normalVelocity2 - constraint.velocityBiases[1] - (k12 * oldImpulse1 + k22 * oldImpulse2)
+
+        var impulse1: Double
+        var impulse2: Double
+        val determinant = k11 * k22 - k12 * k12
+        // both points are touching: K * impulse = -b
+        impulse1 = (k12 * b2 - k22 * b1) / determinant
+        impulse2 = (k12 * b1 - k11 * b2) / determinant
+        if (impulse1 < 0.0 || impulse2 < 0.0) {
+            // only the first point is touching
+            impulse1 = -b1 / k11
+            impulse2 = 0.0
+            if (impulse1 < 0.0 || k12 * impulse1 + b2 < 0.0) {
+                // only the second point is touching
+                impulse1 = 0.0
+                impulse2 = -b2 / k22
+                if (impulse2 < 0.0 || k12 * impulse2 + b1 < 0.0) {
+                    // both points are separating
+                    impulse2 = 0.0
+                    if (b1 < 0.0 || b2 < 0.0) return
+                }
+            }
+        }
+        constraint.normalImpulses[0] = impulse1
+        constraint.normalImpulses[1] = impulse2
+        val change1 = impulse1 - oldImpulse1
+        val change2 = impulse2 - oldImpulse2
+        applyImpulse(constraint, 0, nx * change1, ny * change1)
+        applyImpulse(constraint, 1, nx * change2, ny * change2)
+    }
+
+    /**
+     * moves the entities apart along the normal to remove a part of the penetration that is left. The movement of the
+     * entities from previous constraints in this pass is taken into account. The corrections of the points of one
+     * constraint are calculated from the same state, so two symmetric points don't rotate the entities
+     */
+    private fun correctPositions(constraint: ContactConstraint) {
+        val body1 = constraint.body1
+        val body2 = constraint.body2
+        val nx = constraint.normalX
+        val ny = constraint.normalY
+        val invMass1 = inverseMasses[body1]
+        val invMass2 = inverseMasses[body2]
+        val invInertia1 = inverseInertias[body1]
+        val invInertia2 = inverseInertias[body2]
+        val pointCount = constraint.pointCount
+        for (i in 0 until pointCount) {
+            val r1x = constraint.r1X[i]
+            val r1y = constraint.r1Y[i]
+            val r2x = constraint.r2X[i]
+            val r2y = constraint.r2Y[i]
+            val moved1X = translationsX[body1] + rotations[body1] * r1y
+            val moved1Y = translationsY[body1] - rotations[body1] * r1x
+            val moved2X = translationsX[body2] + rotations[body2] * r2y
+            val moved2Y = translationsY[body2] - rotations[body2] * r2x
+            val depth = constraint.depths[i] - ((moved1X - moved2X) * nx + (moved1Y - moved2Y) * ny)
+            val correction = (positionCorrection * (depth - allowedPenetration)).coerceIn(0.0, MAX_CORRECTION)
+            val rn1 = perpDot(r1x, r1y, nx, ny)
+            val rn2 = perpDot(r2x, r2y, nx, ny)
+            val mass = invMass1 + invMass2 + invInertia1 * rn1 * rn1 + invInertia2 * rn2 * rn2
+            // split between the points, so two points don't correct the penetration twice
+            constraint.correctionImpulses[i] = if (mass > 0.0) correction / mass / pointCount else 0.0
+        }
+        for (i in 0 until pointCount) {
+            val impulse = constraint.correctionImpulses[i]
+            if (impulse == 0.0) continue
+            translationsX[body1] += nx * impulse * invMass1
+            translationsY[body1] += ny * impulse * invMass1
+            rotations[body1] += invInertia1 * perpDot(constraint.r1X[i], constraint.r1Y[i], nx, ny) * impulse
+            translationsX[body2] -= nx * impulse * invMass2
+            translationsY[body2] -= ny * impulse * invMass2
+            rotations[body2] -= invInertia2 * perpDot(constraint.r2X[i], constraint.r2Y[i], nx, ny) * impulse
+        }
+    }
+
+    /**
+     * applies the impulse at the point to the first entity and the opposite impulse to the second entity
+     */
+    private fun applyImpulse(constraint: ContactConstraint, point: Int, impulseX: Double, impulseY: Double) {
+        val body1 = constraint.body1
+        val body2 = constraint.body2
+        val invMass1 = inverseMasses[body1]
+        val invMass2 = inverseMasses[body2]
+        velocitiesX[body1] += impulseX * invMass1
+        velocitiesY[body1] += impulseY * invMass1
+        angularVelocities[body1] += inverseInertias[body1] *
+                perpDot(constraint.r1X[point], constraint.r1Y[point], impulseX, impulseY)
+        velocitiesX[body2] -= impulseX * invMass2
+        velocitiesY[body2] -= impulseY * invMass2
+        angularVelocities[body2] -= inverseInertias[body2] *
+                perpDot(constraint.r2X[point], constraint.r2Y[point], impulseX, impulseY)
+    }
+
+    /**
+     * @return the x-component of the velocity of the point on the first entity relative to the second entity
+     */
+    private fun relativeVelocityX(constraint: ContactConstraint, point: Int): Double {
+        val body1 = constraint.body1
+        val body2 = constraint.body2
+        return velocitiesX[body1] + angularVelocities[body1] * constraint.r1Y[point] -
+                velocitiesX[body2] - angularVelocities[body2] * constraint.r2Y[point]
+    }
+
+    /**
+     * @return the y-component of the velocity of the point on the first entity relative to the second entity
+     */
+    private fun relativeVelocityY(constraint: ContactConstraint, point: Int): Double {
+        val body1 = constraint.body1
+        val body2 = constraint.body2
+        return velocitiesY[body1] - angularVelocities[body1] * constraint.r1X[point] -
+                velocitiesY[body2] + angularVelocities[body2] * constraint.r2X[point]
+    }
+
+    /**
+     * the velocity of a point at offset r from the center of an entity rotating with angular velocity w is
+     * w * (r.y, -r.x), because entities rotate clockwise. This returns (r.y, -r.x) dot v, which is used to calculate
+     * the effect of an impulse v at r on the angular velocity
+     */
+    private fun perpDot(rx: Double, ry: Double, vx: Double, vy: Double): Double = ry * vx - rx * vy
+
+    /**
+     * adds the entity to the bodies of the current step if it isn't already part of it
+     * @return the index of the body
+     */
+    private fun addBody(ent: Entity): Int {
+        val index = ent.solverIndex
+        if (index in 0 until bodyCount && bodies[index] === ent) return index
+        if (bodyCount == bodies.size) growBodies()
+        val body = bodyCount++
+        bodies[body] = ent
+        ent.solverIndex = body
+        val velocity = ent.velocity
+        velocitiesX[body] = velocity.x
+        velocitiesY[body] = velocity.y
+        angularVelocities[body] = ent.angularVelocity * ANGULAR_VELOCITY_SCALE
+        val lockState = ent.lockState
+        val isTranslationLocked =
+            lockState == Entity.LockState.FULL_LOCK || lockState == Entity.LockState.TRANSLATION_LOCK
+        val isRotationLocked = lockState == Entity.LockState.FULL_LOCK || lockState == Entity.LockState.ROTATION_LOCK
+        inverseMasses[body] = if (isTranslationLocked) 0.0 else ent.inverseMass
+        inverseInertias[body] = if (isRotationLocked) 0.0 else ent.inverseInertia
+        translationsX[body] = 0.0
+        translationsY[body] = 0.0
+        rotations[body] = 0.0
+        return body
+    }
+
+    /**
+     * writes the velocities and the position-corrections back to the entities and resets the step
+     */
+    private fun writeBack() {
+        for (body in 0 until bodyCount) {
+            val ent = bodies[body]!!
+            bodies[body] = null
+            ent.solverIndex = -1
+            // entities that can't be moved (static, sleeping or locked) are not touched, so sleeping ones stay asleep
+            if (inverseMasses[body] != 0.0) {
+                ent.velocity = Vector2D(velocitiesX[body], velocitiesY[body])
+                if (translationsX[body] != 0.0 || translationsY[body] != 0.0) {
+                    ent.position = Vector2D(ent.position.x + translationsX[body], ent.position.y + translationsY[body])
+                }
+            }
+            if (inverseInertias[body] != 0.0) {
+                ent.angularVelocity = angularVelocities[body] / ANGULAR_VELOCITY_SCALE
+                if (rotations[body] != 0.0) ent.rotation += rotations[body]
+            }
+        }
+        bodyCount = 0
+        constraintCount = 0
+    }
+
+    private fun growBodies() {
+        val size = bodies.size * 2
+        bodies = bodies.copyOf(size)
+        velocitiesX = velocitiesX.copyOf(size)
+        velocitiesY = velocitiesY.copyOf(size)
+        angularVelocities = angularVelocities.copyOf(size)
+        inverseMasses = inverseMasses.copyOf(size)
+        inverseInertias = inverseInertias.copyOf(size)
+        translationsX = translationsX.copyOf(size)
+        translationsY = translationsY.copyOf(size)
+        rotations = rotations.copyOf(size)
+    }
+
+    /**
+     * the state of the solver for one collision
+     */
+    private class ContactConstraint {
+        var body1: Int = 0
+        var body2: Int = 0
+        var normalX: Double = 0.0
+        var normalY: Double = 0.0
+        var friction: Double = 0.0
+        var pointCount: Int = 0
+
+        val r1X: DoubleArray = DoubleArray(2)
+        val r1Y: DoubleArray = DoubleArray(2)
+        val r2X: DoubleArray = DoubleArray(2)
+        val r2Y: DoubleArray = DoubleArray(2)
+        val depths: DoubleArray = DoubleArray(2)
+        val normalMasses: DoubleArray = DoubleArray(2)
+        val tangentMasses: DoubleArray = DoubleArray(2)
+        val velocityBiases: DoubleArray = DoubleArray(2)
+        val normalImpulses: DoubleArray = DoubleArray(2)
+        val tangentImpulses: DoubleArray = DoubleArray(2)
+        val correctionImpulses: DoubleArray = DoubleArray(2)
+
+        /**
+         * the matrix of the effective masses of the two points (inverse of the mass the points have together); only
+         * set if the constraint has two points
+         */
+        var k11: Double = 0.0
+        var k12: Double = 0.0
+        var k22: Double = 0.0
+
+        /**
+         * true if the points are solved together (see [solveNormalsTogether])
+         */
+        var isBlockSolvable: Boolean = false
+    }
+
+    /**
+     * the accumulated impulses of a pair from the last step
+     */
+    private class CachedImpulses {
+
+        /**
+         * the physicsId of the entity the offsets are relative to
+         */
+        var ownerId: Int = -1
+
+        var step: Int = 0
+        var pointCount: Int = 0
+        val rX: DoubleArray = DoubleArray(2)
+        val rY: DoubleArray = DoubleArray(2)
+        val normalImpulses: DoubleArray = DoubleArray(2)
+        val tangentImpulses: DoubleArray = DoubleArray(2)
+    }
+
+    private companion object {
+
+        /**
+         * [Entity.step] rotates entities by angularVelocity * 4 per tick, so the solver works with the angular
+         * velocity multiplied by this
+         */
+        const val ANGULAR_VELOCITY_SCALE: Double = 4.0
+
+        /**
+         * contacts that approach slower than this don't bounce, so resting contacts come to rest
+         */
+        const val RESTITUTION_THRESHOLD: Double = 1.0
+
+        /**
+         * the maximum distance between a point of this step and a cached point for them to be considered the same
+         */
+        const val WARM_START_DISTANCE: Double = 2.0
+
+        /**
+         * the maximum correction applied to a point in one step, to avoid overshooting
+         */
+        const val MAX_CORRECTION: Double = 5.0
+
+        /**
+         * the maximum condition number of the effective mass matrix for which the points of a constraint are solved
+         * together
+         */
+        const val MAX_CONDITION_NUMBER: Double = 1000.0
+    }
+
+}
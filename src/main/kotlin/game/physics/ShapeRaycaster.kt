@@ -0,0 +1,188 @@
+package game.physics
+
+import game.entities.ChainEntity
+import game.entities.CircleEntity
+import game.entities.Entity
+import game.entities.PolygonEntity
+import utils.Vector2D
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sqrt
+
+/**
+ * calculates where a ray hits the shape of an entity. The ray is defined as origin + direction * t for
+ * 0 <= t <= maxFraction. Rays starting inside of a shape don't hit it.
+ *
+ * _Note: the raycaster stores the normal of the last hit, so it must not be used by multiple threads at once_
+ */
+class ShapeRaycaster {
+
+    /**
+     * the normal of the surface at the point hit by the last call to [raycast]; points against the direction of the
+     * ray
+     */
+    var normalX: Double = 0.0
+        private set
+
+    /**
+     * see [normalX]
+     */
+    var normalY: Double = 0.0
+        private set
+
+    /**
+     * @return the fraction at which the ray hits the entity; -1 if it doesn't hit it or the shape of the entity is not
+     * supported
+     */
+    fun raycast(
+        ent: Entity,
+        originX: Double, originY: Double, directionX: Double, directionY: Double, maxFraction: Double
+    ): Double {
+        return when (ent) {
+            is PolygonEntity -> {
+                ent.updateTransformCache()
+                raycastPolygon(ent, originX, originY, directionX, directionY, maxFraction)
+            }
+            is CircleEntity -> raycastCircle(ent, originX, originY, directionX, directionY, maxFraction)
+            is ChainEntity -> raycastChain(ent, originX, originY, directionX, directionY, maxFraction)
+            else -> -1.0
+        }
+    }
+
+    /**
+     * clips the ray against the faces of the polygon; the ray enters the polygon at the face with the largest
+     * entering-fraction
+     */
+    private fun raycastPolygon(
+        poly: PolygonEntity,
+        originX: Double, originY: Double, directionX: Double, directionY: Double, maxFraction: Double
+    ): Double {
+        val xs = poly.worldVerticesX
+        val ys = poly.worldVerticesY
+        val nxs = poly.worldNormalsX
+        val nys = poly.worldNormalsY
+        var lower = 0.0
+        var upper = maxFraction
+        var face = -1
+        for (i in xs.indices) {
+            val numerator = nxs[i] * (xs[i] - originX) + nys[i] * (ys[i] - originY)
+            val denominator = nxs[i] * directionX + nys[i] * directionY
+            if (denominator == 0.0) {
+                // the ray is parallel to the face and outside of it
+                if (numerator < 0.0) return -1.0
+                continue
+            }
+            val t = numerator / denominator
+            if (denominator < 0.0) {
+                if (t > lower) {
+                    lower = t
+                    face = i
+                }
+            } else if (t < upper) {
+                upper = t
+            }
+            if (upper < lower) return -1.0
+        }
+        // the origin is inside the polygon
+        if (face == -1) return -1.0
+        normalX = nxs[face]
+        normalY = nys[face]
+        return lower
+    }
+
+    private fun raycastCircle(
+        circle: CircleEntity,
+        originX: Double, originY: Double, directionX: Double, directionY: Double, maxFraction: Double
+    ): Double {
+        val sx = originX - circle.position.x
+        val sy = originY - circle.position.y
+        val radius = circle.radius
+        val c = sx * sx + sy * sy - radius * radius
+        if (c < 0.0) return -1.0
+        val b = sx * directionX + sy * directionY
+        val rr = directionX * directionX + directionY * directionY
+        val sigma = b * b - rr * c
+        if (sigma < 0.0 || rr == 0.0) return -1.0
+        val t = -(b + sqrt(sigma)) / rr
+        if (t < 0.0 || t > maxFraction) return -1.0
+        normalX = (sx + directionX * t) / radius
+        normalY = (sy + directionY * t) / radius
+        return t
+    }
+
+    /**
+     * the closest hit with a segment in the current call to [raycastChain]
+     */
+    private var chainHit: Double = -1.0
+    private var foundChainHit: Boolean = false
+    private var rayOriginX: Double = 0.0
+    private var rayOriginY: Double = 0.0
+    private var rayDirectionX: Double = 0.0
+    private var rayDirectionY: Double = 0.0
+    private var rayChain: ChainEntity? = null
+
+    /**
+     * reused callback for querying the segments of a chain, so raycasting doesn't allocate
+     */
+    private val segmentCallback: DynamicAabbTree.QueryCallback<Int> = DynamicAabbTree.QueryCallback { segment ->
+        raycastSegment(rayChain!!, segment)
+        true
+    }
+
+    /**
+     * checks the segments of the chain in the bounding-box of the ray and keeps the closest hit
+     */
+    private fun raycastChain(
+        chain: ChainEntity,
+        originX: Double, originY: Double, directionX: Double, directionY: Double, maxFraction: Double
+    ): Double {
+        chain.updateTransformCache()
+        chainHit = maxFraction
+        foundChainHit = false
+        rayOriginX = originX
+        rayOriginY = originY
+        rayDirectionX = directionX
+        rayDirectionY = directionY
+        rayChain = chain
+        val endX = originX + directionX * maxFraction
+        val endY = originY + directionY * maxFraction
+        chain.querySegments(min(originX, endX), min(originY, endY), max(originX, endX), max(originY, endY), segmentCallback)
+        rayChain = null
+        return if (foundChainHit) chainHit else -1.0
+    }
+
+    private fun raycastSegment(chain: ChainEntity, segment: Int) {
+        val end = chain.segmentEnd(segment)
+        val v1x = chain.worldVerticesX[segment]
+        val v1y = chain.worldVerticesY[segment]
+        val ex = chain.worldVerticesX[end] - v1x
+        val ey = chain.worldVerticesY[end] - v1y
+        val nx = chain.segmentNormalsX[segment]
+        val ny = chain.segmentNormalsY[segment]
+        val denominator = nx * rayDirectionX + ny * rayDirectionY
+        if (denominator == 0.0) return
+        val t = (nx * (v1x - rayOriginX) + ny * (v1y - rayOriginY)) / denominator
+        if (t < 0.0 || t > chainHit) return
+        val hitX = rayOriginX + rayDirectionX * t
+        val hitY = rayOriginY + rayDirectionY * t
+        val lengthSquared = ex * ex + ey * ey
+        if (lengthSquared == 0.0) return
+        val s = ((hitX - v1x) * ex + (hitY - v1y) * ey) / lengthSquared
+        if (s < 0.0 || s > 1.0) return
+        chainHit = t
+        foundChainHit = true
+        // segments are two-sided, the normal faces the origin of the ray
+        normalX = if (denominator > 0.0) -nx else nx
+        normalY = if (denominator > 0.0) -ny else ny
+    }
+
+}
+
+/**
+ * the result of a raycast
+ * @param entity the entity that was hit
+ * @param point the point at which the ray hit the entity
+ * @param normal the normal of the surface of the entity at the point; points against the direction of the ray
+ * @param distance the distance from the origin of the ray to the point
+ */
+class RaycastResult(val entity: Entity, val point: Vector2D, val normal: Vector2D, val distance: Double)
@@ -0,0 +1,430 @@
+package game.physics
+
+import game.entities.Entity
+import utils.LongHashMap
+import java.util.*
+import kotlin.math.abs
+import kotlin.math.floor
+
+/**
+ * a broad-phase collision checker that sorts the entities into a uniform grid (stored in a hash-map, so the world
+ * doesn't need bounds). Only entities sharing a cell are compared.
+ *
+ * Static entities (see [Entity.isStatic]) are kept in a separate grid that is only updated when a static entity moves
+ * to other cells,
+ * the grid for the other entities is rebuilt every time [getCollisionCandidates] is called.
+ * @param cellSize the width and height of a cell; should be about the size of a typical (moving) entity
+ * @param maxCellsPerEntity entities that would cover more cells than this are not put into the grid, instead they are
+ * compared to every other entity
+ */
+class SpatialHashBroadCollisionChecker(
+    val cellSize: Double = 100.0,
+    private val maxCellsPerEntity: Int = 256
+) : BroadCollisionChecker {
+
+    /**
+     * the cells containing the static entities
+     */
+    private val staticCells: LongHashMap<Cell> = LongHashMap()
+
+    /**
+     * the cells containing the dynamic entities; cells that weren't used in the current pass are recognized by their
+     * [Cell.stamp] and are reused
+     */
+    private val dynamicCells: LongHashMap<Cell> = LongHashMap()
+
+    /**
+     * the proxies of all entities the checker currently knows about
+     */
+    private val proxies: IdentityHashMap<Entity, Proxy> = IdentityHashMap()
+
+    private val proxyList: MutableList<Proxy> = mutableListOf()
+    private val dynamicProxies: MutableList<Proxy> = mutableListOf()
+    private val oversizedProxies: MutableList<Proxy> = mutableListOf()
+
+    /**
+     * incremented every time [getCollisionCandidates] is called
+     */
+    private var pass: Int = 0
+
+    /**
+     * incremented for every query, used to not report an entity twice if it shares multiple cells with another
+     */
+    private var queryStamp: Int = 0
+
+    /**
+     * the amount of dynamic cells that were used in the current pass
+     */
+    private var usedDynamicCells: Int = 0
+
+    override fun getCollisionCandidates(entities: List<Entity>): List<Pair<Entity, Entity>> {
+        pass++
+        updateProxies(entities)
+        buildDynamicCells()
+
+        val candidates = mutableListOf<Pair<Entity, Entity>>()
+        for (proxy in dynamicProxies) {
+            queryStamp++
+            for (cx in proxy.minCellX..proxy.maxCellX) for (cy in proxy.minCellY..proxy.maxCellY) {
+                val key = cellKey(cx, cy)
+                val dynamicCell = dynamicCells[key]
+                if (dynamicCell != null && dynamicCell.stamp == pass) {
+                    collectCandidates(proxy, dynamicCell, true, candidates)
+                }
+                val staticCell = staticCells[key] ?: continue
+                collectCandidates(proxy, staticCell, false, candidates)
+            }
+        }
+        for (oversized in oversizedProxies) {
+            for (other in proxyList) {
+                if (other === oversized) continue
+                if (other.isOversized && other.index < oversized.index) continue
+                addIfColliding(oversized, other, candidates)
+            }
+        }
+
+        if (dynamicCells.size > usedDynamicCells * 4 + 64) dynamicCells.removeIf { _, cell -> cell.stamp != pass }
+        return candidates
+    }
+
+    /**
+     * calls the callback for every entity whose aabb intersects the area, using the grids.
+     *
+     * _Note: the grids reflect the state of the last call to [getCollisionCandidates]. Entities that were added or
+     * moved to other cells since then may not be found_
+     */
+    override fun queryArea(
+        entities: List<Entity>,
+        minX: Double, minY: Double, maxX: Double, maxY: Double,
+        callback: (Entity) -> Boolean
+    ) {
+        queryStamp++
+        val minCellX = toCell(minX)
+        val minCellY = toCell(minY)
+        val maxCellX = toCell(maxX)
+        val maxCellY = toCell(maxY)
+        val cellCount = (maxCellX.toLong() - minCellX + 1) * (maxCellY.toLong() - minCellY + 1)
+        if (cellCount > maxCellsPerEntity) {
+            // checking every proxy is cheaper than visiting this many cells
+            for (proxy in proxyList) if (!queryProxy(proxy, minX, minY, maxX, maxY, callback)) return
+            return
+        }
+        for (cx in minCellX..maxCellX) for (cy in minCellY..maxCellY) {
+            val key = cellKey(cx, cy)
+            val dynamicCell = dynamicCells[key]
+            if (dynamicCell != null && dynamicCell.stamp == pass) {
+                for (i in 0 until dynamicCell.size) {
+                    if (!queryProxy(dynamicCell.proxies[i]!!, minX, minY, maxX, maxY, callback)) return
+                }
+            }
+            val staticCell = staticCells[key] ?: continue
+            for (i in 0 until staticCell.size) {
+                if (!queryProxy(staticCell.proxies[i]!!, minX, minY, maxX, maxY, callback)) return
+            }
+        }
+        for (proxy in oversizedProxies) if (!queryProxy(proxy, minX, minY, maxX, maxY, callback)) return
+    }
+
+    /**
+     * casts a ray by walking through the cells it passes in order. Stops once the next cell is further away than the
+     * closest hit reported by the callback; see [BroadCollisionChecker.raycast].
+     *
+     * _Note: like [queryArea]_
+     */
+    override fun raycast(
+        entities: List<Entity>,
+        originX: Double, originY: Double, directionX: Double, directionY: Double, maxFraction: Double,
+        callback: (Entity, Double) -> Double
+    ) {
+        queryStamp++
+        var curMaxFraction = maxFraction
+        for (proxy in oversizedProxies) {
+            curMaxFraction = raycastProxy(proxy, originX, originY, directionX, directionY, curMaxFraction, callback)
+            if (curMaxFraction <= 0.0) return
+        }
+
+        val crossedCells = (abs(directionX) + abs(directionY)) * curMaxFraction / cellSize + 2
+        if (crossedCells > proxyList.size) {
+            // checking every proxy is cheaper than walking through this many cells
+            for (proxy in proxyList) {
+                curMaxFraction = raycastProxy(proxy, originX, originY, directionX, directionY, curMaxFraction, callback)
+                if (curMaxFraction <= 0.0) return
+            }
+            return
+        }
+
+        var cx = toCell(originX)
+        var cy = toCell(originY)
+        val stepX = if (directionX > 0.0) 1 else -1
+        val stepY = if (directionY > 0.0) 1 else -1
+        // the fraction at which the ray crosses the next cell-border on each axis, and the fraction between borders
+        val deltaX = if (abs(directionX) < EPSILON) Double.MAX_VALUE else cellSize / abs(directionX)
+        val deltaY = if (abs(directionY) < EPSILON) Double.MAX_VALUE else cellSize / abs(directionY)
+        var nextX = if (abs(directionX) < EPSILON) Double.MAX_VALUE else {
+            ((if (stepX > 0) cx + 1 else cx) * cellSize - originX) / directionX
+        }
+        var nextY = if (abs(directionY) < EPSILON) Double.MAX_VALUE else {
+            ((if (stepY > 0) cy + 1 else cy) * cellSize - originY) / directionY
+        }
+        var cellEntry = 0.0
+        while (cellEntry <= curMaxFraction) {
+            val key = cellKey(cx, cy)
+            val dynamicCell = dynamicCells[key]
+            if (dynamicCell != null && dynamicCell.stamp == pass) {
+                for (i in 0 until dynamicCell.size) {
+                    val proxy = dynamicCell.proxies[i]!!
+                    curMaxFraction = raycastProxy(proxy, originX, originY, directionX, directionY, curMaxFraction, callback)
+                    if (curMaxFraction <= 0.0) return
+                }
+            }
+            val staticCell = staticCells[key]
+            if (staticCell != null) {
+                for (i in 0 until staticCell.size) {
+                    val proxy = staticCell.proxies[i]!!
+                    curMaxFraction = raycastProxy(proxy, originX, originY, directionX, directionY, curMaxFraction, callback)
+                    if (curMaxFraction <= 0.0) return
+                }
+            }
+            if (nextX < nextY) {
+                cellEntry = nextX
+                nextX += deltaX
+                cx += stepX
+            } else {
+                cellEntry = nextY
+                nextY += deltaY
+                cy += stepY
+            }
+        }
+    }
+
+    /**
+     * calls the callback for the entity of the proxy if it wasn't already reported in this raycast and its aabb is
+     * hit by the ray
+     * @return the new maxFraction
+     */
+    private fun raycastProxy(
+        proxy: Proxy,
+        originX: Double, originY: Double, directionX: Double, directionY: Double, maxFraction: Double,
+        callback: (Entity, Double) -> Double
+    ): Double {
+        if (proxy.queryStamp == queryStamp) return maxFraction
+        proxy.queryStamp = queryStamp
+        if (!proxy.entity.aabb.intersectsRay(originX, originY, directionX, directionY, maxFraction)) return maxFraction
+        val fraction = callback(proxy.entity, maxFraction)
+        return if (fraction < maxFraction) fraction else maxFraction
+    }
+
+    /**
+     * calls the callback for the entity of the proxy if it wasn't already reported in this query and its aabb
+     * intersects the area
+     * @return false if the query should be stopped
+     */
+    private fun queryProxy(
+        proxy: Proxy,
+        minX: Double, minY: Double, maxX: Double, maxY: Double,
+        callback: (Entity) -> Boolean
+    ): Boolean {
+        if (proxy.queryStamp == queryStamp) return true
+        proxy.queryStamp = queryStamp
+        if (!proxy.entity.aabb.intersects(minX, minY, maxX, maxY)) return true
+        return callback(proxy.entity)
+    }
+
+    /**
+     * adds the candidates from a cell for the proxy
+     * @param isDynamicCell if true, a pair is only added if the index of the proxy is smaller than the index of the
+     * other entity, so pairs of dynamic entities are only added once
+     */
+    private fun collectCandidates(proxy: Proxy, cell: Cell, isDynamicCell: Boolean, candidates: MutableList<Pair<Entity, Entity>>) {
+        for (i in 0 until cell.size) {
+            val other = cell.proxies[i]!!
+            if (other === proxy || other.queryStamp == queryStamp) continue
+            other.queryStamp = queryStamp
+            if (isDynamicCell && other.index < proxy.index) continue
+            addIfColliding(proxy, other, candidates)
+        }
+    }
+
+    private fun addIfColliding(proxy: Proxy, other: Proxy, candidates: MutableList<Pair<Entity, Entity>>) {
+        val ent1 = proxy.entity
+        val ent2 = other.entity
+        if (!BroadCollisionChecker.canCollide(ent1, ent2)) return
+        if (!ent1.aabb.intersects(ent2.aabb)) return
+        candidates.add(if (proxy.index < other.index) Pair(ent1, ent2) else Pair(ent2, ent1))
+    }
+
+    /**
+     * creates, updates and removes the proxies, so they match the entity-list. Static entities that moved are
+     * reinserted into the static grid
+     */
+    private fun updateProxies(entities: List<Entity>) {
+        dynamicProxies.clear()
+        oversizedProxies.clear()
+        for (i in entities.indices) {
+            val ent = entities[i]
+            if (!ent.isCollidable) continue
+            var proxy = proxies[ent]
+            if (proxy == null) {
+                proxy = Proxy(ent)
+                proxies[ent] = proxy
+                proxyList.add(proxy)
+            }
+            proxy.pass = pass
+            proxy.index = i
+
+            val isStatic = ent.isStatic
+            updateCellRange(proxy, isStatic)
+            if (proxy.isOversized) {
+                oversizedProxies.add(proxy)
+                continue
+            }
+            if (!isStatic) {
+                dynamicProxies.add(proxy)
+                continue
+            }
+            if (!proxy.isInStaticCells) insertIntoStaticCells(proxy)
+        }
+
+        val it = proxyList.iterator()
+        while (it.hasNext()) {
+            val proxy = it.next()
+            if (proxy.pass == pass) continue
+            removeFromStaticCells(proxy)
+            proxies.remove(proxy.entity)
+            it.remove()
+        }
+    }
+
+    private fun buildDynamicCells() {
+        usedDynamicCells = 0
+        for (proxy in dynamicProxies) {
+            for (cx in proxy.minCellX..proxy.maxCellX) for (cy in proxy.minCellY..proxy.maxCellY) {
+                val key = cellKey(cx, cy)
+                var cell = dynamicCells[key]
+                if (cell == null) {
+                    cell = Cell()
+                    dynamicCells[key] = cell
+                }
+                if (cell.stamp != pass) {
+                    cell.stamp = pass
+                    cell.clear()
+                    usedDynamicCells++
+                }
+                cell.add(proxy)
+            }
+        }
+    }
+
+    private fun insertIntoStaticCells(proxy: Proxy) {
+        for (cx in proxy.minCellX..proxy.maxCellX) for (cy in proxy.minCellY..proxy.maxCellY) {
+            val key = cellKey(cx, cy)
+            var cell = staticCells[key]
+            if (cell == null) {
+                cell = Cell()
+                staticCells[key] = cell
+            }
+            cell.add(proxy)
+        }
+        proxy.isInStaticCells = true
+    }
+
+    private fun removeFromStaticCells(proxy: Proxy) {
+        if (!proxy.isInStaticCells) return
+        for (cx in proxy.minCellX..proxy.maxCellX) for (cy in proxy.minCellY..proxy.maxCellY) {
+            val key = cellKey(cx, cy)
+            val cell = staticCells[key] ?: continue
+            cell.remove(proxy)
+            if (cell.size == 0) staticCells.remove(key)
+        }
+        proxy.isInStaticCells = false
+    }
+
+    /**
+     * calculates which cells the entity of the proxy covers. If the proxy is in the static cells and it isn't static
+     * anymore or its cells changed, it is removed from them
+     */
+    private fun updateCellRange(proxy: Proxy, isStatic: Boolean) {
+        val aabb = proxy.entity.aabb
+        val minCellX = toCell(aabb.minX)
+        val minCellY = toCell(aabb.minY)
+        val maxCellX = toCell(aabb.maxX)
+        val maxCellY = toCell(aabb.maxY)
+        val hasChanged = minCellX != proxy.minCellX || minCellY != proxy.minCellY ||
+                maxCellX != proxy.maxCellX || maxCellY != proxy.maxCellY
+        if (proxy.isInStaticCells && (hasChanged || !isStatic)) removeFromStaticCells(proxy)
+        if (!hasChanged) return
+        proxy.minCellX = minCellX
+        proxy.minCellY = minCellY
+        proxy.maxCellX = maxCellX
+        proxy.maxCellY = maxCellY
+        val cellCount = (maxCellX.toLong() - minCellX + 1) * (maxCellY.toLong() - minCellY + 1)
+        proxy.isOversized = cellCount > maxCellsPerEntity
+    }
+
+    private fun toCell(coordinate: Double): Int = floor(coordinate / cellSize).toInt()
+
+    private fun cellKey(cx: Int, cy: Int): Long = (cx.toLong() shl 32) or (cy.toLong() and 0xffffffffL)
+
+    /**
+     * stores the information the checker needs about an entity
+     */
+    private class Proxy(val entity: Entity) {
+
+        /**
+         * the index of the entity in the entity-list of the current pass
+         */
+        var index: Int = 0
+
+        /**
+         * the last pass in which the entity was still in the entity-list
+         */
+        var pass: Int = 0
+
+        var queryStamp: Int = 0
+
+        var minCellX: Int = 0
+        var minCellY: Int = 0
+        var maxCellX: Int = 0
+        var maxCellY: Int = 0
+
+        var isOversized: Boolean = false
+        var isInStaticCells: Boolean = false
+    }
+
+    /**
+     * a cell of the grid
+     */
+    private class Cell {
+
+        var proxies: Array<Proxy?> = arrayOfNulls(4)
+        var size: Int = 0
+
+        /**
+         * the pass in which the cell was last used; only relevant for dynamic cells
+         */
+        var stamp: Int = 0
+
+        fun add(proxy: Proxy) {
+            if (size == proxies.size) proxies = proxies.copyOf(size * 2)
+            proxies[size++] = proxy
+        }
+
+        fun remove(proxy: Proxy) {
+            for (i in 0 until size) if (proxies[i] === proxy) {
+                proxies[i] = proxies[--size]
+                proxies[size] = null
+                return
+            }
+        }
+
+        fun clear() {
+            for (i in 0 until size) proxies[i] = null
+            size = 0
+        }
+    }
+
+    private companion object {
+        const val EPSILON: Double = 1e-12
+    }
+
+}
@@ -0,0 +1,236 @@
+package game.physics
+
+import game.entities.Entity
+import java.util.*
+
+/**
+ * a broad-phase collision checker using the sort-and-sweep algorithm. The start- and end-points of the entities on
+ * both axes are kept in arrays between calls. Because entities only move a little between two steps, these arrays are
+ * almost sorted already and can be re-sorted with an insertion sort in close to linear time. The entities are then
+ * swept along the axis on which they are spread out the most.
+ */
+class SweepAndPruneBroadCollisionChecker : BroadCollisionChecker {
+
+    /**
+     * the proxies of all entities the checker currently knows about
+     */
+    private val proxies: IdentityHashMap<Entity, Proxy> = IdentityHashMap()
+
+    private val proxyList: MutableList<Proxy> = mutableListOf()
+
+    /**
+     * the endpoints on the x-axis; sorted by value
+     */
+    private var endpointsX: Array<Endpoint?> = arrayOfNulls(64)
+
+    /**
+     * the endpoints on the y-axis; sorted by value
+     */
+    private var endpointsY: Array<Endpoint?> = arrayOfNulls(64)
+
+    /**
+     * the amount of endpoints per axis (two per entity)
+     */
+    private var endpointCount: Int = 0
+
+    /**
+     * the proxies whose interval contains the current position of the sweep
+     */
+    private var active: Array<Proxy?> = arrayOfNulls(16)
+    private var activeCount: Int = 0
+
+    /**
+     * incremented every time [getCollisionCandidates] is called
+     */
+    private var pass: Int = 0
+
+    override fun getCollisionCandidates(entities: List<Entity>): List<Pair<Entity, Entity>> {
+        pass++
+        val addedCount = updateProxies(entities)
+        removeStaleEndpoints()
+
+        var sumX = 0.0
+        var sumY = 0.0
+        var sumSquaredX = 0.0
+        var sumSquaredY = 0.0
+        for (proxy in proxyList) {
+            val centerX = (proxy.minX + proxy.maxX) * 0.5
+            val centerY = (proxy.minY + proxy.maxY) * 0.5
+            sumX += centerX
+            sumY += centerY
+            sumSquaredX += centerX * centerX
+            sumSquaredY += centerY * centerY
+        }
+
+        // after a lot of insertions the arrays aren't nearly sorted anymore, so a regular sort is faster
+        val fullSort = addedCount > 64 && addedCount * 8 > endpointCount
+        sort(endpointsX, fullSort)
+        sort(endpointsY, fullSort)
+
+        // the variance is proportional to sumSquared - sum² / n; the division is the same for both axes
+        val n = proxyList.size.coerceAtLeast(1)
+        val sweepX = sumSquaredX - sumX * sumX / n >= sumSquaredY - sumY * sumY / n
+        return sweep(if (sweepX) endpointsX else endpointsY)
+    }
+
+    /**
+     * sweeps over the endpoints and adds all pairs whose intervals overlap on the axis and whose aabbs intersect
+     */
+    private fun sweep(endpoints: Array<Endpoint?>): List<Pair<Entity, Entity>> {
+        val candidates = mutableListOf<Pair<Entity, Entity>>()
+        activeCount = 0
+        for (i in 0 until endpointCount) {
+            val endpoint = endpoints[i]!!
+            val proxy = endpoint.proxy
+            if (!endpoint.isMin) {
+                val last = active[--activeCount]!!
+                active[proxy.activeIndex] = last
+                last.activeIndex = proxy.activeIndex
+                active[activeCount] = null
+                continue
+            }
+            for (j in 0 until activeCount) {
+                val other = active[j]!!
+                val ent1 = proxy.entity
+                val ent2 = other.entity
+                if (!BroadCollisionChecker.canCollide(ent1, ent2)) continue
+                if (!ent1.aabb.intersects(ent2.aabb)) continue
+                candidates.add(if (proxy.index < other.index) Pair(ent1, ent2) else Pair(ent2, ent1))
+            }
+            if (activeCount == active.size) active = active.copyOf(activeCount * 2)
+            proxy.activeIndex = activeCount
+            active[activeCount++] = proxy
+        }
+        return candidates
+    }
+
+    /**
+     * creates and updates the proxies, so they match the entity-list, and updates the values of the endpoints
+     * @return the amount of proxies that were added
+     */
+    private fun updateProxies(entities: List<Entity>): Int {
+        var addedCount = 0
+        for (i in entities.indices) {
+            val ent = entities[i]
+            if (!ent.isCollidable) continue
+            var proxy = proxies[ent]
+            if (proxy == null) {
+                proxy = Proxy(ent)
+                proxies[ent] = proxy
+                proxyList.add(proxy)
+                addEndpoints(proxy)
+                addedCount++
+            }
+            proxy.pass = pass
+            proxy.index = i
+            val aabb = ent.aabb
+            proxy.minX = aabb.minX
+            proxy.maxX = aabb.maxX
+            proxy.minY = aabb.minY
+            proxy.maxY = aabb.maxY
+        }
+        for (i in 0 until endpointCount) {
+            endpointsX[i]!!.let { it.value = if (it.isMin) it.proxy.minX else it.proxy.maxX }
+            endpointsY[i]!!.let { it.value = if (it.isMin) it.proxy.minY else it.proxy.maxY }
+        }
+        return addedCount
+    }
+
+    private fun addEndpoints(proxy: Proxy) {
+        if (endpointCount + 2 > endpointsX.size) {
+            endpointsX = endpointsX.copyOf(endpointsX.size * 2)
+            endpointsY = endpointsY.copyOf(endpointsY.size * 2)
+        }
+        endpointsX[endpointCount] = Endpoint(proxy, true)
+        endpointsY[endpointCount++] = Endpoint(proxy, true)
+        endpointsX[endpointCount] = Endpoint(proxy, false)
+        endpointsY[endpointCount++] = Endpoint(proxy, false)
+    }
+
+    /**
+     * removes the proxies and endpoints of entities that are no longer in the entity-list (or are no longer
+     * collidable). Keeps the order of the remaining endpoints
+     */
+    private fun removeStaleEndpoints() {
+        var removed = false
+        val it = proxyList.iterator()
+        while (it.hasNext()) {
+            val proxy = it.next()
+            if (proxy.pass == pass) continue
+            proxies.remove(proxy.entity)
+            it.remove()
+            removed = true
+        }
+        if (!removed) return
+        var newCount = 0
+        for (i in 0 until endpointCount) {
+            if (endpointsX[i]!!.proxy.pass == pass) endpointsX[newCount++] = endpointsX[i]
+        }
+        newCount = 0
+        for (i in 0 until endpointCount) {
+            if (endpointsY[i]!!.proxy.pass == pass) endpointsY[newCount++] = endpointsY[i]
+        }
+        for (i in newCount until endpointCount) {
+            endpointsX[i] = null
+            endpointsY[i] = null
+        }
+        endpointCount = newCount
+    }
+
+    /**
+     * sorts the endpoints by value; uses an insertion-sort unless [fullSort] is true
+     */
+    private fun sort(endpoints: Array<Endpoint?>, fullSort: Boolean) {
+        if (fullSort) {
+            Arrays.sort(endpoints, 0, endpointCount, endpointComparator)
+            return
+        }
+        for (i in 1 until endpointCount) {
+            val endpoint = endpoints[i]!!
+            var j = i - 1
+            while (j >= 0 && endpoints[j]!!.value > endpoint.value) {
+                endpoints[j + 1] = endpoints[j]
+                j--
+            }
+            endpoints[j + 1] = endpoint
+        }
+    }
+
+    /**
+     * stores the information the checker needs about an entity
+     */
+    private class Proxy(val entity: Entity) {
+
+        /**
+         * the index of the entity in the entity-list of the current pass
+         */
+        var index: Int = 0
+
+        /**
+         * the last pass in which the entity was still in the entity-list
+         */
+        var pass: Int = 0
+
+        /**
+         * the index of the proxy in the active-array while sweeping
+         */
+        var activeIndex: Int = 0
+
+        var minX: Double = 0.0
+        var maxX: Double = 0.0
+        var minY: Double = 0.0
+        var maxY: Double = 0.0
+    }
+
+    /**
+     * the start- or end-point of the interval of an entity on one axis
+     */
+    private class Endpoint(val proxy: Proxy, val isMin: Boolean) {
+        var value: Double = 0.0
+    }
+
+    private companion object {
+        val endpointComparator: Comparator<Endpoint?> = Comparator { e1, e2 -> e1!!.value.compareTo(e2!!.value) }
+    }
+
+}
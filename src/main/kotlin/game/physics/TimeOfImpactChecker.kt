@@ -0,0 +1,99 @@
+package game.physics
+
+import game.entities.ChainEntity
+import game.entities.Entity
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * calculates when an entity moving along a straight line first touches another entity. Uses conservative
+ * advancement: the entity is moved forward by its distance to the other entity divided by how fast it approaches it.
+ * The distance between two convex shapes changes at most that fast, so the entity is never moved past the point of
+ * impact.
+ *
+ * _Note: the rotation of the entity and the movement of the other entity are not taken into account_
+ */
+class TimeOfImpactChecker {
+
+    private val distanceChecker: GjkCollisionChecker = GjkCollisionChecker()
+
+    /**
+     * @param ent the moving entity
+     * @param motionX the movement of the entity on the x-axis
+     * @param motionY the movement of the entity on the y-axis
+     * @param other the entity that could be hit
+     * @return the fraction of the movement after which the entities touch; 1 if they don't touch during the movement,
+     * -1 if they are already touching at the start
+     */
+    fun timeOfImpact(ent: Entity, motionX: Double, motionY: Double, other: Entity): Double {
+        if (other is ChainEntity) return chainTimeOfImpact(ent, motionX, motionY, other)
+        return advance(ent, motionX, motionY, other, -1)
+    }
+
+    /**
+     * the earliest impact with a segment of the current chain; segments the entity already touches are ignored, so
+     * an entity resting on the chain can still be stopped by a wall further along it
+     */
+    private var chainFraction: Double = 1.0
+    private var isTouchingChain: Boolean = false
+
+    /**
+     * like [timeOfImpact], but checks every segment of the chain that the entity can reach during the movement
+     */
+    private fun chainTimeOfImpact(ent: Entity, motionX: Double, motionY: Double, chain: ChainEntity): Double {
+        chainFraction = 1.0
+        isTouchingChain = false
+        chain.updateTransformCache()
+        val aabb = ent.aabb
+        chain.querySegments(
+            aabb.minX + min(motionX, 0.0), aabb.minY + min(motionY, 0.0),
+            aabb.maxX + max(motionX, 0.0), aabb.maxY + max(motionY, 0.0)
+        ) { segment ->
+            val fraction = advance(ent, motionX, motionY, chain, segment)
+            if (fraction < 0.0) isTouchingChain = true
+            else if (fraction < chainFraction) chainFraction = fraction
+            true
+        }
+        return if (chainFraction >= 1.0 && isTouchingChain) -1.0 else chainFraction
+    }
+
+    /**
+     * calculates the time of impact using conservative advancement
+     * @param segment the segment of [other] if it is a [ChainEntity], -1 otherwise
+     */
+    private fun advance(ent: Entity, motionX: Double, motionY: Double, other: Entity, segment: Int): Double {
+        val checker = distanceChecker
+        var fraction = 0.0
+        for (iteration in 0 until MAX_ITERATIONS) {
+            val distance = if (segment < 0) {
+                checker.distance(ent, other, motionX * fraction, motionY * fraction)
+            } else {
+                checker.distanceToSegment(ent, other as ChainEntity, segment, motionX * fraction, motionY * fraction)
+            }
+            if (distance < 0.0) return 1.0
+            if (distance <= TOLERANCE) return if (iteration == 0) -1.0 else fraction
+            val approachSpeed = motionX * checker.closestDirectionX + motionY * checker.closestDirectionY
+            if (approachSpeed <= 0.0) return 1.0
+            fraction += distance / approachSpeed
+            if (fraction >= 1.0) return 1.0
+        }
+        return fraction
+    }
+
+    /**
+     * removes cached data of pairs that weren't checked in this step
+     */
+    fun onStepFinished() {
+        distanceChecker.onStepFinished()
+    }
+
+    private companion object {
+        const val MAX_ITERATIONS: Int = 20
+
+        /**
+         * the distance at which the entities count as touching
+         */
+        const val TOLERANCE: Double = 0.01
+    }
+
+}
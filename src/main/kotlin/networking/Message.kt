@@ -3,6 +3,7 @@ package networking
 import game.Conf
 import game.Game
 import game.KeyCode
+import game.KeyInputController
 import java.io.DataInputStream
 import java.io.DataOutputStream
 
@@ -44,6 +45,9 @@ abstract class Message {
             server.addMessageDeserializer("clInfo") {
                 ClientInfoMessage.deserialize(it)
             }
+            server.addMessageDeserializer("clKeys") {
+                KeyStateMessage.deserialize(it)
+            }
         }
     }
 
@@ -105,7 +109,8 @@ class IncrementalUpdateMessage(val game: Game) : Message() {
 
 
 /**
- * is sent from the client to the server and contains information from the client, like keyInputs
+ * is sent from the client to the server and contains information from the client, like keyInputs. Sends every key as
+ * an int; [KeyStateMessage] sends the keys more compactly
  * @param keys the keys on the client-side
  */
 class ClientInfoMessage(val keys: List<KeyCode>) : Message() {
@@ -128,15 +133,76 @@ class ClientInfoMessage(val keys: List<KeyCode>) : Message() {
             val keys = mutableListOf<KeyCode>()
             val num = input.readInt()
             for (i in 0 until num) {
-                keys.add(getKeyFromCode(input.readInt()) ?: return null)
+                keys.add(KeyCode.fromCode(input.readInt()) ?: return null)
             }
             return ClientInfoMessage(keys)
         }
 
-        private fun getKeyFromCode(code: Int): KeyCode? {
-            for (key in KeyCode.values()) if (key.code == code) return key
-            return null
+    }
+}
+
+/**
+ * is sent from the client to the server and contains the pressed keys as a bitset, in which bit i of word i / 64
+ * stands for the key with the ordinal i (see [KeyInputController]). The client and server need to use the same
+ * [KeyCode]s in the same order.
+ *
+ * A full update contains a byte in which bit i is set if word i is not empty, followed by the non-empty words, so an
+ * update with a few pressed keys is 9 - 17 bytes. A delta contains the amount of keys that were pressed or released
+ * since the last key-message of the client, followed by their ordinals as unsigned bytes. Messages arrive in order,
+ * because the connection uses tcp, so every delta applies to the state of the previous message
+ * @param isDelta true if [bits] contains the keys that changed instead of the pressed keys
+ * @param bits the bitset of the keys
+ */
+class KeyStateMessage(val isDelta: Boolean, val bits: LongArray) : Message() {
+
+    override val identifier: String = "clKeys"
+
+    override fun execute(con: ClientConnection, game: Game?) {
+        val player = con.player ?: return
+        if (isDelta) player.keyInputController.togglePresses(bits)
+        else player.keyInputController.updatePresses(bits)
+    }
+
+    override fun serialize(output: DataOutputStream, con: ClientConnection) {
+        output.writeBoolean(isDelta)
+        if (isDelta) {
+            var count = 0
+            for (word in bits) count += java.lang.Long.bitCount(word)
+            output.writeByte(count)
+            for (i in bits.indices) {
+                var word = bits[i]
+                while (word != 0L) {
+                    output.writeByte(i * 64 + java.lang.Long.numberOfTrailingZeros(word))
+                    word = word and (word - 1)
+                }
+            }
+            return
+        }
+        var wordMask = 0
+        for (i in bits.indices) if (bits[i] != 0L) wordMask = wordMask or (1 shl i)
+        output.writeByte(wordMask)
+        for (word in bits) if (word != 0L) output.writeLong(word)
+    }
+
+    companion object {
+
+        fun deserialize(input: DataInputStream): KeyStateMessage? {
+            val bits = LongArray(KeyInputController.WORDS)
+            val isDelta = input.readBoolean()
+            if (isDelta) {
+                val count = input.readUnsignedByte()
+                for (i in 0 until count) {
+                    val ordinal = input.readUnsignedByte()
+                    if (ordinal >= KeyCode.count()) return null
+                    bits[ordinal ushr 6] = bits[ordinal ushr 6] xor (1L shl ordinal)
+                }
+                return KeyStateMessage(true, bits)
+            }
+            val wordMask = input.readUnsignedByte()
+            if (wordMask ushr bits.size != 0) return null
+            for (i in bits.indices) if (wordMask and (1 shl i) != 0) bits[i] = input.readLong()
+            return KeyStateMessage(false, bits)
         }
 
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,151 @@
+package utils
+
+/**
+ * a hash-map with primitive long keys. Unlike a `HashMap<Long, V>` it doesn't box the keys, so lookups don't allocate.
+ * Uses open addressing with linear probing.
+ * @param initialCapacity the amount of entries the map can hold before it needs to grow
+ */
+class LongHashMap<V>(initialCapacity: Int = 16) {
+
+    private var keys: LongArray
+    private var values: Array<Any?>
+    private var isUsed: BooleanArray
+    private var mask: Int
+
+    /**
+     * the amount of entries in the map
+     */
+    var size: Int = 0
+        private set
+
+    init {
+        var capacity = 8
+        while (capacity * 3 < initialCapacity * 4) capacity = capacity shl 1
+        keys = LongArray(capacity)
+        values = arrayOfNulls(capacity)
+        isUsed = BooleanArray(capacity)
+        mask = capacity - 1
+    }
+
+    /**
+     * @return the value associated with the key; null if there is none
+     */
+    @Suppress("UNCHECKED_CAST")
+    operator fun get(key: Long): V? {
+        var i = indexOf(key)
+        while (isUsed[i]) {
+            if (keys[i] == key) return values[i] as V
+            i = (i + 1) and mask
+        }
+        return null
+    }
+
+    fun containsKey(key: Long): Boolean = get(key) != null
+
+    /**
+     * associates a value with a key, replacing the previous value
+     */
+    operator fun set(key: Long, value: V) {
+        var i = indexOf(key)
+        while (isUsed[i]) {
+            if (keys[i] == key) {
+                values[i] = value
+                return
+            }
+            i = (i + 1) and mask
+        }
+        isUsed[i] = true
+        keys[i] = key
+        values[i] = value
+        size++
+        if (size * 4 > keys.size * 3) grow()
+    }
+
+    /**
+     * removes the entry with the key
+     * @return the value that was associated with the key; null if there was none
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun remove(key: Long): V? {
+        var i = indexOf(key)
+        while (isUsed[i]) {
+            if (keys[i] == key) {
+                val value = values[i] as V
+                removeAt(i)
+                return value
+            }
+            i = (i + 1) and mask
+        }
+        return null
+    }
+
+    /**
+     * removes all entries for which the predicate returns true
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun removeIf(predicate: (key: Long, value: V) -> Boolean) {
+        var i = 0
+        while (i < keys.size) {
+            // removeAt() may shift a not yet visited entry into slot i, so i is only advanced if nothing was removed
+            if (isUsed[i] && predicate(keys[i], values[i] as V)) removeAt(i)
+            else i++
+        }
+    }
+
+    /**
+     * calls the action for every entry in the map
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun forEach(action: (key: Long, value: V) -> Unit) {
+        for (i in keys.indices) if (isUsed[i]) action(keys[i], values[i] as V)
+    }
+
+    fun clear() {
+        isUsed.fill(false)
+        values.fill(null)
+        size = 0
+    }
+
+    /**
+     * removes the entry at index i and moves the following entries of the probe sequence back, so no tombstones are
+     * needed
+     */
+    private fun removeAt(index: Int) {
+        var i = index
+        var j = i
+        while (true) {
+            j = (j + 1) and mask
+            if (!isUsed[j]) break
+            val home = indexOf(keys[j])
+            // the entry at j can only be moved to i if i lies cyclically between its home-slot and j
+            if ((j > i && (home <= i || home > j)) || (j < i && (home <= i && home > j))) {
+                keys[i] = keys[j]
+                values[i] = values[j]
+                i = j
+            }
+        }
+        isUsed[i] = false
+        values[i] = null
+        size--
+    }
+
+    private fun grow() {
+        val oldKeys = keys
+        val oldValues = values
+        val oldUsed = isUsed
+        keys = LongArray(oldKeys.size * 2)
+        values = arrayOfNulls(oldKeys.size * 2)
+        isUsed = BooleanArray(oldKeys.size * 2)
+        mask = keys.size - 1
+        size = 0
+        @Suppress("UNCHECKED_CAST")
+        for (i in oldKeys.indices) if (oldUsed[i]) set(oldKeys[i], oldValues[i] as V)
+    }
+
+    private fun indexOf(key: Long): Int {
+        var h = key * -0x61c8864680b583ebL
+        h = h xor (h ushr 32)
+        return h.toInt() and mask
+    }
+
+}
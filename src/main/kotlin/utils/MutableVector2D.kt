@@ -0,0 +1,119 @@
+package utils
+
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * a mutable Vector2D. All operations modify the vector in place and return it, so they can be chained without
+ * allocating temporaries. Intended for hot paths like the physics; user-facing code should use [Vector2D] instead.
+ *
+ * _Note: the magnitude is not stored, it is only computed when [mag] is accessed_
+ */
+class MutableVector2D(var x: Double, var y: Double) {
+
+    constructor() : this(0.0, 0.0)
+
+    /**
+     * creates a MutableVector2D with the same values as [other]
+     */
+    constructor(other: Vector2D) : this(other.x, other.y)
+
+    /**
+     * the magnitude of the vector; computed every time it is accessed
+     */
+    val mag: Double
+        get() = sqrt(x * x + y * y)
+
+    /**
+     * the squared magnitude of the vector; cheaper than [mag] because it doesn't need a sqrt
+     */
+    val magSquared: Double
+        get() = x * x + y * y
+
+    fun set(x: Double, y: Double): MutableVector2D {
+        this.x = x
+        this.y = y
+        return this
+    }
+
+    fun set(other: Vector2D): MutableVector2D = set(other.x, other.y)
+
+    fun set(other: MutableVector2D): MutableVector2D = set(other.x, other.y)
+
+    fun add(x: Double, y: Double): MutableVector2D {
+        this.x += x
+        this.y += y
+        return this
+    }
+
+    fun add(other: Vector2D): MutableVector2D = add(other.x, other.y)
+
+    fun add(other: MutableVector2D): MutableVector2D = add(other.x, other.y)
+
+    fun sub(x: Double, y: Double): MutableVector2D {
+        this.x -= x
+        this.y -= y
+        return this
+    }
+
+    fun sub(other: Vector2D): MutableVector2D = sub(other.x, other.y)
+
+    fun sub(other: MutableVector2D): MutableVector2D = sub(other.x, other.y)
+
+    /**
+     * adds [other] multiplied by [scalar] to this vector
+     */
+    fun addScaled(other: Vector2D, scalar: Double): MutableVector2D = add(other.x * scalar, other.y * scalar)
+
+    fun scale(scalar: Double): MutableVector2D {
+        this.x *= scalar
+        this.y *= scalar
+        return this
+    }
+
+    fun negate(): MutableVector2D = set(-x, -y)
+
+    /**
+     * sets the magnitude to 1 while keeping the direction; a zero-vector stays unchanged
+     */
+    fun normalize(): MutableVector2D {
+        val mag = this.mag
+        if (mag == 0.0) return this
+        return scale(1 / mag)
+    }
+
+    /**
+     * turns this vector into the vector perpendicular to it (same as [Vector2D.normal])
+     */
+    fun toNormal(): MutableVector2D = set(-y, x)
+
+    /**
+     * rotates the vector around the origin; uses the same direction as [Utils.rotatePointAroundPoint]
+     * @param angle the angle in rad
+     */
+    fun rotate(angle: Double): MutableVector2D = rotate(sin(angle), cos(angle))
+
+    /**
+     * like [rotate], but with a precomputed sine and cosine of the angle, so they can be reused for multiple vectors
+     */
+    fun rotate(sin: Double, cos: Double): MutableVector2D = set(x * cos + y * sin, y * cos - x * sin)
+
+    infix fun dot(other: Vector2D): Double = this.x * other.x + this.y * other.y
+
+    infix fun dot(other: MutableVector2D): Double = this.x * other.x + this.y * other.y
+
+    infix fun cross(other: Vector2D): Double = this.x * other.y - this.y * other.x
+
+    infix fun cross(other: MutableVector2D): Double = this.x * other.y - this.y * other.x
+
+    /**
+     * @return a new (immutable) Vector2D with the same values
+     */
+    fun toVector2D(): Vector2D = Vector2D(x, y)
+
+    override fun toString(): String {
+        return "MutableVector($x, $y)"
+    }
+
+}
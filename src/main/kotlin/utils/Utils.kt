@@ -17,18 +17,18 @@ object Utils {
      * finds the average vertex for an array of vertices
      */
     fun findVertexAverage(vertices: Array<Vector2D>): Vector2D {
-        var acc = Vector2D()
-        vertices.forEach { acc += it }
-        return acc / vertices.size.toDouble()
+        val acc = MutableVector2D()
+        for (vert in vertices) acc.add(vert)
+        return acc.scale(1 / vertices.size.toDouble()).toVector2D()
     }
 
     /**
      * finds the average vertex for a list of vertices
      */
     fun findVertexAverage(vertices: List<Vector2D>): Vector2D {
-        var acc = Vector2D()
-        vertices.forEach { acc += it }
-        return acc / vertices.size.toDouble()
+        val acc = MutableVector2D()
+        for (vert in vertices) acc.add(vert)
+        return acc.scale(1 / vertices.size.toDouble()).toVector2D()
     }
 
     /**
@@ -38,7 +38,7 @@ object Utils {
 
         val n = vertices.size
         var signedArea = 0.0
-        var ans = Vector2D()
+        val ans = MutableVector2D()
 
         for (i in 0 until n) {
 
@@ -50,7 +50,7 @@ object Utils {
             val a = (x0 * y1) - (x1 * y0)
 
             signedArea += a
-            ans += Vector2D((x0 + x1) * a, (y0 + y1) * a)
+            ans.add((x0 + x1) * a, (y0 + y1) * a)
         }
 
         signedArea *= 0.5
@@ -104,7 +104,7 @@ object Utils {
      * @return Pair(mass, inertia)
      */
     fun calculateMassAndInertia(verts: Array<Vector2D>, density: Double): Pair<Double, Double> {
-        var c = Vector2D(0.0, 0.0)
+        val c = MutableVector2D()
         var area = 0.0
         var inert = 0.0
         val kInv3 = 1.0 / 3.0
@@ -116,13 +116,13 @@ object Utils {
             area += triangleArea
 
             val weight = triangleArea * kInv3
-            c += p1 * weight
-            c += p2 * weight
+            c.addScaled(p1, weight)
+            c.addScaled(p2, weight)
             val x2 = p1.x * p1.x + p2.x * p1.x + p2.x * p2.x
             val y2 = p1.y * p1.y + p2.y * p1.y + p2.y * p2.y
             inert += 0.25f * kInv3 * d * (x2 + y2)
         }
-        c *= (1.0f / area)
+        c.scale(1.0 / area)
 
         val mass = abs(density * area)
         val inertia = abs(inert * density)
@@ -22,7 +22,20 @@ class Vector2D (val x: Double, val y: Double) {
      */
     constructor(n: Int) : this(n, n)
 
-    val mag: Double = sqrt(this.x * this.x + this.y * this.y)
+    /**
+     * the magnitude of the vector; computed the first time it is accessed, so temporaries that never need it don't
+     * pay for the sqrt
+     */
+    val mag: Double
+        get() {
+            if (magCache < 0.0) magCache = sqrt(this.x * this.x + this.y * this.y)
+            return magCache
+        }
+
+    /**
+     * caches [mag]; negative if it hasn't been computed yet
+     */
+    private var magCache: Double = -1.0
 
     /**
      * a vector with the same direction but magnitude 1
@@ -98,6 +111,11 @@ class Vector2D (val x: Double, val y: Double) {
         return result
     }
 
+    /**
+     * @return a [MutableVector2D] with the same values
+     */
+    fun toMutable(): MutableVector2D = MutableVector2D(x, y)
+
     fun serialize(output: DataOutputStream) {
         output.writeDouble(x)
         output.writeDouble(y)
@@ -0,0 +1,67 @@
+import game.Game
+import game.entities.GravityBehavior
+import game.entities.PolygonEntity
+import game.physics.CollisionResolver
+import game.physics.MainCollisionResolver
+import game.physics.SequentialImpulseCollisionResolver
+import kotlinx.coroutines.runBlocking
+import networking.Server
+import utils.Vector2D
+import kotlin.math.abs
+
+/**
+ * runs a stack of boxes on a floor without the game-loop and checks that the stack stays where it was built and falls
+ * asleep. Prints the position of the top box, so the resolvers can be compared
+ */
+object StackingTest : Server(0) {
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val sequential = stack(SequentialImpulseCollisionResolver(), 8, 0.0)
+        check(abs(sequential.position.x - 500.0) < 0.1 && abs(sequential.rotation) < 0.01) { "the stack moved" }
+        check(sequential.isSleeping) { "the stack didn't fall asleep" }
+        val offset = stack(SequentialImpulseCollisionResolver(), 8, 3.0)
+        check(abs(offset.position.x - 497.0) < 0.1 && abs(offset.rotation) < 0.01) { "the offset stack moved" }
+        check(offset.isSleeping) { "the offset stack didn't fall asleep" }
+        stack(MainCollisionResolver(), 8, 0.0)
+    }
+
+    /**
+     * builds a stack of boxes that are alternately moved by [offset] to the left and right and simulates it
+     * @return the top box
+     */
+    private fun stack(resolver: CollisionResolver, boxes: Int, offset: Double, ticks: Int = 2400): PolygonEntity {
+        val game = Game(0, this)
+        game.collisionResolver = resolver
+        val floor = PolygonEntity(Vector2D(500, 20), 1000.0, 40.0, Double.POSITIVE_INFINITY)
+        floor.staticFriction = 0.06
+        floor.dynamicFriction = 0.05
+        floor.restitution = 0.2
+        game.addEntity(floor)
+        val gravityBehavior = GravityBehavior(0.1)
+        var top = floor
+        for (i in 0 until boxes) {
+            val x = 500.0 + if (i % 2 == 0) offset else -offset
+            val box = PolygonEntity(Vector2D(x, 65.0 + i * 50.0), 50.0, 50.0, 0.6)
+            box.restitution = 0.1
+            box.staticFriction = 0.06
+            box.dynamicFriction = 0.05
+            box.addBehavior(gravityBehavior)
+            game.addEntity(box)
+            top = box
+        }
+        for (tick in 1..ticks) {
+            runBlocking { game.update() }
+            if (tick % 600 == 0) {
+                println("${resolver.javaClass.simpleName} offset $offset tick $tick: " +
+                        "top box at ${top.position}, rotation ${"%.4f".format(top.rotation)}, sleeping ${top.isSleeping}")
+            }
+        }
+        return top
+    }
+
+    override fun initialize() { }
+
+    override fun onStart() { }
+
+}